@@ -0,0 +1,68 @@
+package search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** A burst of searches: one searchAll call against repeated search calls. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class BatchSearchBenchmark {
+
+    @Param({ "100" })
+    public int megabytes;
+
+    @Param({ "1000" })
+    public int batchSize;
+
+    @Param({ "3" })
+    public int contextWords;
+
+    private TextSearcher searcher;
+    private List<String> words;
+
+    @Setup
+    public void setUp() throws IOException {
+        searcher = new TextSearcher(Corpus.file((long) megabytes << 20),
+                StandardCharsets.UTF_8);
+        // Mostly rare vocabulary words, with repeats, like a real burst.
+        Random random = new Random(7);
+        words = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            words.add("w" + Integer.toString(1000 + random.nextInt(40000), 36));
+        }
+    }
+
+    @Benchmark
+    public Map<String, String[]> searchAll() {
+        return searcher.searchAll(words, contextWords);
+    }
+
+    @Benchmark
+    public void repeatedSearch(Blackhole blackhole) {
+        for (String word : words) {
+            blackhole.consume(searcher.search(word, contextWords));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Search throughput with several reader threads sharing one TextSearcher.
+ * Run with -t 1, -t 2, -t 4... to see how it scales with readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+@Threads(4)
+public class ConcurrentSearchBenchmark {
+
+    @Param({ "100" })
+    public int megabytes;
+
+    @Param({ "3" })
+    public int contextWords;
+
+    private TextSearcher searcher;
+
+    @Setup
+    public void setUp() throws IOException {
+        searcher = new TextSearcher(Corpus.file((long) megabytes << 20),
+                StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String[] search() {
+        // A vocabulary word of middling frequency, different every call.
+        int rank = 100 + ThreadLocalRandom.current().nextInt(5000);
+        return searcher.search("w" + Integer.toString(rank, 36), contextWords);
+    }
+}
@@ -0,0 +1,97 @@
+package search;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Synthetic, English-like corpora for the benchmarks. Word frequencies are
+ * skewed like natural text: a few words are everywhere, most are rare.
+ * The same size always produces the same text.
+ */
+final class Corpus {
+
+    /** Occurs about once every 15 words. */
+    static final String COMMON = "the";
+    /** Occurs about once per megabyte. */
+    static final String RARE = "quagga";
+    /** Never occurs. */
+    static final String ABSENT = "slejrlskejrlkajlsklejrlksjekl";
+
+    private static final String[] FREQUENT = { "the", "of", "and", "to", "in",
+            "that", "species", "is", "have", "be", "which", "as", "by",
+            "natural", "selection", "forms", "varieties", "from", "or",
+            "animal's", "plants", "on", "with", "not", "been", "any" };
+    private static final int VOCABULARY = 50000;
+
+    private Corpus() {
+    }
+
+    /** Text of about the given length, in chars. */
+    static String text(int length) {
+        StringBuilder builder = new StringBuilder(length + 64);
+        try {
+            write(builder, length);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A UTF-8 file of about the given length. Files are kept in the temp
+     * directory and reused across runs.
+     */
+    static File file(long length) throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"),
+                "textsearch-corpus-" + length + ".txt");
+        if (file.length() < length) {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8),
+                    1 << 16)) {
+                write(writer, length);
+            }
+        }
+        return file;
+    }
+
+    private static void write(Appendable out, long length) throws IOException {
+        Random random = new Random(42);
+        long written = 0;
+        int sentence = 0;
+        while (written < length) {
+            String word;
+            if (written / (1 << 20) != (written + 8) / (1 << 20)) {
+                word = RARE;
+            } else if (random.nextInt(3) > 0) {
+                word = FREQUENT[(int) (FREQUENT.length
+                        * Math.pow(random.nextDouble(), 2))];
+            } else {
+                // Rank ~ 1/x, so low ranks are much more likely.
+                int rank = (int) Math.pow(VOCABULARY, random.nextDouble());
+                word = "w" + Integer.toString(rank, 36);
+            }
+            if (sentence == 0) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            out.append(word);
+            written += word.length();
+            if (++sentence > 8 + random.nextInt(12)) {
+                out.append(random.nextInt(4) == 0 ? ".\r\n" : ".  ");
+                written += 3;
+                sentence = 0;
+            } else if (random.nextInt(10) == 0) {
+                out.append(", ");
+                written += 2;
+            } else {
+                out.append(' ');
+                written++;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time and allocations to build a TextSearcher from a file, and to reopen
+ * one from its index file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class IndexBenchmark {
+
+    @Param({ "1", "100", "1024" })
+    public int megabytes;
+
+    private File file;
+    private File index;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Corpus.file((long) megabytes << 20);
+        index = File.createTempFile("corpus", ".idx");
+        index.deleteOnExit();
+        TextSearcher.open(file, StandardCharsets.UTF_8, index);
+    }
+
+    @Benchmark
+    public TextSearcher construct() throws IOException {
+        return new TextSearcher(file, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public TextSearcher reopen() throws IOException {
+        return TextSearcher.open(file, StandardCharsets.UTF_8, index);
+    }
+}
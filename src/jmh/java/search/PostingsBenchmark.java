@@ -0,0 +1,145 @@
+package search;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding speed and size of the positions of one term, packed in blocks
+ * against the plain varints postings were stored as before. Times are per
+ * position, so 1 ns is a billion positions a second. Sizes in bytes per
+ * position are printed at setup, for the blocks, the varints and the token
+ * offsets of a text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostingsBenchmark {
+
+    private static final int POSITIONS = 1 << 20;
+    // Every this many positions, for the advance benchmark.
+    private static final int STRIDE = 1000;
+
+    /** Average distance between positions: 15 is a word like "the". */
+    @Param({ "2", "15", "200" })
+    public int gap;
+
+    private PostingsIndex postings;
+    private int termIndex;
+    private byte[] varints;
+    private int[] positions;
+    private final int[] dest = new int[POSITIONS];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        positions = new int[POSITIONS];
+        PostingsIndex.Builder builder = new PostingsIndex.Builder();
+        int position = 0;
+        for (int i = 0; i < POSITIONS; i++) {
+            position += 1 + random.nextInt(2 * gap - 1);
+            positions[i] = position;
+            builder.add("term", position);
+        }
+        TermDictionary terms = TermDictionary.empty().with(builder.terms());
+        postings = builder.build(terms);
+        termIndex = postings.find(terms.find("term"));
+        varints = new byte[5 * POSITIONS];
+        int length = 0;
+        int last = 0;
+        for (int p : positions) {
+            int delta = p - last;
+            last = p;
+            while ((delta & ~0x7F) != 0) {
+                varints[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            varints[length++] = (byte) delta;
+        }
+        TokenOffsets.Builder offsets = new TokenOffsets.Builder();
+        String text = Corpus.text(1 << 20);
+        new WordDfa().scan(TextSource.of(text), 0, text.length(),
+                (start, end, term, termLength, hash) -> offsets.add((int) start, (int) end));
+        System.out.printf("%nblocks %.2f, varints %.2f bytes a position;"
+                        + " token offsets %.2f bytes a token, was 8%n",
+                (double) postings.sizeInBytes() / POSITIONS,
+                (double) length / POSITIONS,
+                (double) offsets.build().sizeInBytes() / offsets.size());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int decodeBlocks() {
+        return postings.decode(termIndex, 0, dest, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int decodeVarints() {
+        int p = 0;
+        int position = 0;
+        for (int i = 0; i < POSITIONS; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = varints[p++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            position += delta;
+            dest[i] = position;
+        }
+        return position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS / STRIDE)
+    public int advanceBlocks() {
+        PostingsIndex.Cursor cursor = postings.cursor(termIndex, 0, Integer.MAX_VALUE);
+        int sum = 0;
+        for (int i = 0; i < POSITIONS; i += STRIDE) {
+            cursor.advance(positions[i]);
+            sum += cursor.peek();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS / STRIDE)
+    public int advanceVarints() {
+        int p = 0;
+        int position = 0;
+        int sum = 0;
+        for (int i = 0; i < POSITIONS; i += STRIDE) {
+            while (position < positions[i]) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = varints[p++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                position += delta;
+            }
+            sum += position;
+        }
+        return sum;
+    }
+}
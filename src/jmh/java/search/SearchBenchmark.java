@@ -0,0 +1,87 @@
+package search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of a single search for rare, common and absent words, of its
+ * first page of hits and of counting its hits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class SearchBenchmark {
+
+    @Param({ "100" })
+    public int megabytes;
+
+    @Param({ Corpus.RARE, Corpus.COMMON, Corpus.ABSENT })
+    public String word;
+
+    @Param({ "0", "3", "10" })
+    public int contextWords;
+
+    // Run with -p cached=true to compare with a query cache.
+    @Param({ "false" })
+    public boolean cached;
+
+    private TextSearcher searcher;
+
+    @Setup
+    public void setUp() throws IOException {
+        searcher = new TextSearcher(Corpus.file((long) megabytes << 20),
+                StandardCharsets.UTF_8);
+        if (cached) {
+            searcher.setQueryCache(new QueryCache(1000, 1L << 30));
+        }
+    }
+
+    @Benchmark
+    public String[] search() {
+        return searcher.search(word, contextWords);
+    }
+
+    @Benchmark
+    public String[] firstPage() {
+        return searcher.search(word, contextWords, 0, 20);
+    }
+
+    @Benchmark
+    public int count() {
+        return searcher.count(word);
+    }
+
+    @Benchmark
+    public String[] prefix() {
+        return searcher.searchPattern(word.substring(0, Math.min(3, word.length())) + "*",
+                contextWords);
+    }
+
+    @Benchmark
+    public String[] fuzzy() {
+        return searcher.searchFuzzy(word, 1, contextWords);
+    }
+
+    // The word with two frequent ones, top 10 passages. Compare -p megabytes
+    // values: the time should hardly grow with the corpus.
+    @Benchmark
+    public String[] ranked() {
+        return searcher.searchRanked(word + " natural selection", 10);
+    }
+}
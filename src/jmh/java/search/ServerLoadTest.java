@@ -0,0 +1,110 @@
+package search;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Load test of {@link SearchServer}: sends searches at a fixed rate over
+ * the loopback interface and reports latency percentiles. Requests are sent
+ * on schedule whether or not earlier ones were answered, and latency counts
+ * from when a request was due, so a stalled server shows up in the
+ * percentiles instead of slowing the test down.
+ * <p>
+ * Run with: ./gradlew loadTest [-PloadArgs='qps seconds megabytes [offheap]'],
+ * with -verbose:gc or a GC log to compare pauses with the index on the heap
+ * and off it.
+ */
+public final class ServerLoadTest {
+
+    // Mostly frequent words, which concurrent clients ask for together.
+    private static final String[] WORDS = { "the", "of", "species", "natural",
+            "selection", "forms", "varieties", Corpus.RARE, Corpus.ABSENT };
+
+    private ServerLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int qps = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        TextSearcher searcher = new TextSearcher(
+                TextSource.of(Corpus.text(megabytes << 20)),
+                ForkJoinPool.commonPool(), 1 << 20);
+        if (args.length > 3 && args[3].equals("offheap")) {
+            searcher.moveOffHeap();
+        }
+        int requests = qps * seconds;
+        long[] latencies = new long[requests];
+        AtomicIntegerArray statuses = new AtomicIntegerArray(600);
+        ExecutorService clients = Executors.newFixedThreadPool(256);
+        try (SearchServer server = SearchServer.builder(searcher).start()) {
+            String base = "http://" + server.getAddress().getHostString() + ":"
+                    + server.getAddress().getPort();
+            Random random = new Random(1);
+            long intervalNanos = 1_000_000_000L / qps;
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                long due = start + i * intervalNanos;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                String path = "/search?context=3&limit=20&q="
+                        + URLEncoder.encode(WORDS[random.nextInt(WORDS.length)], "UTF-8");
+                int request = i;
+                clients.execute(() -> {
+                    statuses.incrementAndGet(get(base + path));
+                    latencies[request] = System.nanoTime() - due;
+                });
+            }
+            clients.shutdown();
+            clients.awaitTermination(1, TimeUnit.MINUTES);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            Arrays.sort(latencies);
+            System.out.printf("%d requests at %d/s over %.1f s: %d searches run%n",
+                    requests, qps, elapsed, server.getLookups());
+            System.out.printf("latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                    percentile(latencies, 0.5), percentile(latencies, 0.99),
+                    percentile(latencies, 0.999), latencies[requests - 1] / 1e6);
+            for (int status = 0; status < statuses.length(); status++) {
+                if (statuses.get(status) > 0) {
+                    System.out.printf("status %d: %d%n", status, statuses.get(status));
+                }
+            }
+        }
+    }
+
+    // Status of a GET, 0 if it failed, reading the body through.
+    private static int get(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream()
+                    : connection.getErrorStream()) {
+                byte[] buffer = new byte[8192];
+                while (in != null && in.read(buffer) > 0) {
+                    // Drains the body, so the connection is kept alive.
+                }
+            }
+            return status;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1e6;
+    }
+}
@@ -0,0 +1,75 @@
+package search;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tokenizing throughput over 1 MB of text. Divide 1 MB by the reported time
+ * per operation for MB/s on one core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private String text;
+    private TextSource source;
+    private final WordScanner scanner = new WordScanner();
+    private final WordDfa dfa = new WordDfa();
+    private final Analyzer regexAnalyzer = Analyzer.builder()
+            .words("[a-zA-Z0-9']+").build();
+
+    @Setup
+    public void setUp() {
+        text = Corpus.text(1 << 20);
+        source = TextSource.of(text);
+    }
+
+    @Benchmark
+    public void regexTokenizer(Blackhole blackhole) {
+        TextTokenizer tokenizer = new TextTokenizer(text, "[a-zA-Z0-9']+");
+        while (tokenizer.hasNext()) {
+            blackhole.consume(tokenizer.next());
+        }
+    }
+
+    @Benchmark
+    public void scanningTokenizer(Blackhole blackhole) {
+        TextTokenizer tokenizer = new TextTokenizer(text);
+        while (tokenizer.hasNext()) {
+            blackhole.consume(tokenizer.next());
+        }
+    }
+
+    @Benchmark
+    public void whitespaceScanner(Blackhole blackhole) {
+        scanner.scan(source, 0, source.length(),
+                (start, end, term, termLength, hash) -> blackhole.consume(hash));
+    }
+
+    @Benchmark
+    public void wordDfa(Blackhole blackhole) {
+        dfa.scan(source, 0, source.length(),
+                (start, end, term, termLength, hash) -> blackhole.consume(hash));
+    }
+
+    @Benchmark
+    public void regexAnalyzer(Blackhole blackhole) {
+        regexAnalyzer.scan(source, 0, source.length(),
+                (start, end, term, termLength, hash) -> blackhole.consume(hash));
+    }
+}
@@ -0,0 +1,300 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns text into the terms that are indexed, and query words into the terms
+ * that are looked up, the same way for both: a tokenizer finds the words,
+ * which are lower cased, then stop words are dropped and the rest stemmed if
+ * asked for.
+ * <p>
+ * The standard tokenizer takes words to be letters and digits, with single
+ * apostrophes inside a word, and runs as a precompiled DFA over the text, see
+ * {@link WordDfa}. Words can also be runs of non whitespace chars, or what a
+ * regular expression matches, which is slower as the text of each segment is
+ * decoded and matched as a String. Stop words and stemming cost a String per
+ * word.
+ * <p>
+ * Dropped stop words still count as words, for context and for phrases, but
+ * can't be searched for. An analyzer is immutable and can be shared.
+ */
+public final class Analyzer {
+
+    /**
+     * Strips English plurals: "ies" to "y", "es" to "e" and a trailing "s",
+     * except in words ending in "ss", "us" and a few more. Short words keep
+     * their "ie" ("ties" to "tie"), and words like "species" that are the
+     * same in the singular are kept whole. Light enough not to merge
+     * unrelated words.
+     */
+    public static final UnaryOperator<String> PLURAL_STEMMER = Analyzer::stemPlural;
+
+    // Words ending in "s" that are their own singular.
+    private static final Set<String> SAME_PLURALS = new HashSet<>(Arrays.asList(
+            "species", "series", "means", "news", "lens", "bias", "gas"));
+
+    private static final Analyzer STANDARD = builder().build();
+    private static final Analyzer WHITESPACE = builder().whitespaceWords().build();
+
+    private enum Words { STANDARD, WHITESPACE, REGEX }
+
+    private final Words words;
+    private final Pattern pattern;
+    private final Set<String> stopWords;
+    private final UnaryOperator<String> stemmer;
+    private final String stemmerName;
+
+    private Analyzer(Builder builder) {
+        this.words = builder.words;
+        this.pattern = builder.pattern;
+        this.stopWords = Collections.unmodifiableSet(new HashSet<>(builder.stopWords));
+        this.stemmer = builder.stemmer;
+        this.stemmerName = builder.stemmerName;
+    }
+
+    /** Words of letters and digits, lower cased. The default. */
+    public static Analyzer standard() {
+        return STANDARD;
+    }
+
+    /**
+     * Words separated by whitespace, lower cased and with trailing punctuation
+     * stripped, so that "1844--honoured" is a single word.
+     */
+    public static Analyzer whitespace() {
+        return WHITESPACE;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Configures an analyzer. Starts from the standard one. */
+    public static final class Builder {
+        private Words words = Words.STANDARD;
+        private Pattern pattern;
+        private final Set<String> stopWords = new HashSet<>();
+        private UnaryOperator<String> stemmer;
+        private String stemmerName;
+
+        private Builder() {
+        }
+
+        /**
+         * Words are what the regular expression matches. Words must not
+         * contain whitespace, as text is split into segments at whitespace.
+         */
+        public Builder words(String regex) {
+            words = Words.REGEX;
+            pattern = Pattern.compile(regex);
+            return this;
+        }
+
+        /** Words are runs of non whitespace chars, see {@link #whitespace()}. */
+        public Builder whitespaceWords() {
+            words = Words.WHITESPACE;
+            pattern = null;
+            return this;
+        }
+
+        /** Words not to index, in any case. */
+        public Builder stopWords(Collection<String> stopWords) {
+            for (String stopWord : stopWords) {
+                this.stopWords.add(lowerCase(stopWord));
+            }
+            return this;
+        }
+
+        /**
+         * Maps lower cased words to the term they are indexed under, for
+         * instance {@link #PLURAL_STEMMER}. Returning null drops the word.
+         *
+         * @param name names the stemmer and how it is configured, so that an
+         *             index file is only reused by a searcher stemming the
+         *             same way: two stemmers that can give different terms
+         *             must have different names.
+         */
+        public Builder stemmer(String name, UnaryOperator<String> stemmer) {
+            this.stemmerName = Objects.requireNonNull(name);
+            this.stemmer = Objects.requireNonNull(stemmer);
+            return this;
+        }
+
+        public Analyzer build() {
+            return new Analyzer(this);
+        }
+    }
+
+    /**
+     * Scans text between start and end, passing every word to the sink. The
+     * term length is -1 for dropped words. Each call uses scanners of its
+     * own, so segments can be scanned in parallel.
+     */
+    void scan(TextSource text, long start, long end, WordScanner.TokenSink sink) {
+        WordScanner.TokenSink filtered = stopWords.isEmpty() && stemmer == null
+                ? sink : filter(sink);
+        switch (words) {
+            case STANDARD:
+                new WordDfa().scan(text, start, end, filtered);
+                break;
+            case WHITESPACE:
+                new WordScanner().scan(text, start, end, filtered);
+                break;
+            default:
+                scanRegex(text, start, end, filtered);
+        }
+    }
+
+    private void scanRegex(TextSource text, long start, long end,
+                           WordScanner.TokenSink sink) {
+        String decoded = text.substring(start, end);
+        WordDfa.DecodedRun run = new WordDfa.DecodedRun(text, decoded, start);
+        Matcher matcher = pattern.matcher(decoded);
+        while (matcher.find()) {
+            if (matcher.end() == matcher.start()) {
+                continue;
+            }
+            String term = lowerCase(matcher.group());
+            sink.token(run.position(matcher.start()), run.position(matcher.end()),
+                    term.toCharArray(), term.length(), term.hashCode());
+        }
+    }
+
+    // Drops stop words and stems the others.
+    private WordScanner.TokenSink filter(WordScanner.TokenSink sink) {
+        return (start, end, term, termLength, hash) -> {
+            String word = new String(term, 0, termLength);
+            String stemmed = stopWords.contains(word) ? null
+                    : stemmer == null ? word : stemmer.apply(word);
+            if (stemmed == null) {
+                sink.token(start, end, term, -1, 0);
+            } else if (stemmed.equals(word)) {
+                sink.token(start, end, term, termLength, hash);
+            } else {
+                sink.token(start, end, stemmed.toCharArray(), stemmed.length(),
+                        stemmed.hashCode());
+            }
+        };
+    }
+
+    /**
+     * The term of a query word: that of its first word, or "" if it has none
+     * or it is dropped.
+     */
+    String normalize(String word) {
+        String[] first = new String[1];
+        scan(TextSource.of(word), 0, word.length(),
+                (start, end, term, termLength, hash) -> {
+                    if (first[0] == null) {
+                        first[0] = termLength < 0 ? ""
+                                : new String(term, 0, termLength);
+                    }
+                });
+        return first[0] == null ? "" : first[0];
+    }
+
+    /** The terms of the words of a text, leaving out dropped ones. */
+    String[] terms(String text) {
+        List<String> terms = new ArrayList<>();
+        scan(TextSource.of(text), 0, text.length(),
+                (start, end, term, termLength, hash) -> {
+                    if (termLength >= 0) {
+                        terms.add(new String(term, 0, termLength));
+                    }
+                });
+        return terms.toArray(new String[0]);
+    }
+
+    /**
+     * A pattern with the wildcards '*' and '?', lower cased and stripped of
+     * the chars around it that can't be part of a word. Patterns are not
+     * stemmed.
+     */
+    String normalizePattern(String pattern) {
+        switch (words) {
+            case STANDARD:
+                int start = 0;
+                int end = pattern.length();
+                while (start < end && !isPatternChar(pattern.charAt(start))) {
+                    start++;
+                }
+                while (end > start && !isPatternChar(pattern.charAt(end - 1))) {
+                    end--;
+                }
+                return lowerCase(pattern.substring(start, end));
+            case WHITESPACE:
+                return WordScanner.normalizePattern(pattern);
+            default:
+                return lowerCase(pattern.trim());
+        }
+    }
+
+    private static boolean isPatternChar(char c) {
+        return c == '*' || c == '?' || (c != '\'' && WordDfa.isWordChar(c));
+    }
+
+    private static String lowerCase(String word) {
+        char[] chars = new char[word.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = WordScanner.toLowerCase(word.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    private static String stemPlural(String word) {
+        int n = word.length();
+        if (SAME_PLURALS.contains(word)) {
+            return word;
+        }
+        if (n == 4 && word.endsWith("ies")) {
+            return word.substring(0, n - 1);
+        }
+        if (n > 4 && word.endsWith("ies") && !word.endsWith("eies")
+                && !word.endsWith("aies")) {
+            return word.substring(0, n - 3) + "y";
+        }
+        if (n > 3 && word.endsWith("es") && !word.endsWith("aes")
+                && !word.endsWith("ees") && !word.endsWith("oes")) {
+            return word.substring(0, n - 1);
+        }
+        if (n > 2 && word.endsWith("s") && !word.endsWith("us")
+                && !word.endsWith("ss")) {
+            return word.substring(0, n - 1);
+        }
+        return word;
+    }
+
+    /**
+     * Describes the analyzer, so that an index is only reused by a searcher
+     * analyzing the same way. Stemmers are told apart by name.
+     */
+    @Override
+    public String toString() {
+        // In the root locale, as this goes into index files.
+        StringBuilder description = new StringBuilder(
+                words.name().toLowerCase(Locale.ROOT));
+        if (pattern != null) {
+            description.append(' ').append(pattern.pattern());
+        }
+        if (!stopWords.isEmpty()) {
+            description.append(" stop ").append(String.join(",",
+                    new TreeSet<>(stopWords)));
+        }
+        if (stemmer != null) {
+            description.append(" stem ").append(stemmerName);
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package search;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs small non negative ints into as many bits each as the largest of
+ * them needs, for frame of reference coding of postings and token offsets.
+ * <p>
+ * Values are packed little endian into whole longs, lowest bits first, so
+ * unpacking reads one long per 64 bits and never straddles more than two.
+ * Packed values can also be read one at a time by index.
+ */
+final class BitPacking {
+
+    private BitPacking() {
+    }
+
+    /** Bits needed for values up to max, 0 for a max of 0. */
+    static int bits(int max) {
+        return 32 - Integer.numberOfLeadingZeros(max);
+    }
+
+    /** Bytes taken by n values of the given number of bits. */
+    static int bytes(int n, int bits) {
+        return 8 * (int) (((long) n * bits + 63) >>> 6);
+    }
+
+    /**
+     * Packs n values starting at values[from] into dest at destPos.
+     *
+     * @return the number of bytes written, see {@link #bytes(int, int)}.
+     */
+    static int pack(int[] values, int from, int n, int bits, byte[] dest,
+                    int destPos) {
+        int p = destPos;
+        long word = 0;
+        int used = 0;
+        for (int i = from; i < from + n; i++) {
+            long value = values[i] & 0xFFFFFFFFL;
+            word |= value << used;
+            used += bits;
+            if (used >= 64) {
+                putLong(dest, p, word);
+                p += 8;
+                used -= 64;
+                word = used == 0 ? 0 : value >>> (bits - used);
+            }
+        }
+        if (used > 0) {
+            putLong(dest, p, word);
+            p += 8;
+        }
+        return p - destPos;
+    }
+
+    /** Unpacks n values packed at pos into dest. */
+    static void unpack(ByteBuffer buffer, int pos, int bits, int[] dest,
+                       int destPos, int n) {
+        if (bits == 0) {
+            for (int i = destPos; i < destPos + n; i++) {
+                dest[i] = 0;
+            }
+            return;
+        }
+        long mask = (1L << bits) - 1;
+        long word = 0;
+        int used = 64;
+        for (int i = destPos; i < destPos + n; i++) {
+            if (used == 64) {
+                word = buffer.getLong(pos);
+                pos += 8;
+                used = 0;
+            }
+            if (used + bits <= 64) {
+                dest[i] = (int) ((word >>> used) & mask);
+                used += bits;
+            } else {
+                long next = buffer.getLong(pos);
+                pos += 8;
+                dest[i] = (int) (((word >>> used) | (next << (64 - used))) & mask);
+                word = next;
+                used += bits - 64;
+            }
+        }
+    }
+
+    /** The value at index among those packed at pos. */
+    static int get(ByteBuffer buffer, int pos, int bits, int index) {
+        if (bits == 0) {
+            return 0;
+        }
+        long bit = (long) index * bits;
+        int p = pos + 8 * (int) (bit >>> 6);
+        int shift = (int) bit & 63;
+        long value = buffer.getLong(p) >>> shift;
+        if (shift + bits > 64) {
+            value |= buffer.getLong(p + 8) << (64 - shift);
+        }
+        return (int) (value & ((1L << bits) - 1));
+    }
+
+    private static void putLong(byte[] dest, int p, long word) {
+        for (int i = 0; i < 8; i++) {
+            dest[p + i] = (byte) (word >>> (8 * i));
+        }
+    }
+}
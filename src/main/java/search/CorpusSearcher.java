@@ -0,0 +1,215 @@
+package search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Searches many files at once, for instance every file of a directory.
+ * Each file has an index of its own, built in parallel with the others.
+ * Searches fan out over the files on a ForkJoin pool and hits come back in
+ * document order: file by file, in the order the files were given, and by
+ * position within a file.
+ */
+public class CorpusSearcher {
+
+    private final File[] files;
+    private final TextSearcher[] searchers;
+    private final ForkJoinPool pool;
+    private final Analyzer analyzer;
+
+    /**
+     * Indexes every regular file under a directory, in its subdirectories
+     * too, on the common ForkJoin pool. Files are searched in the order of
+     * their paths. At most a quarter of the heap worth of text is indexed at
+     * once.
+     *
+     * @param directory The directory to search.
+     * @param charset   The charset the files are encoded in.
+     */
+    public CorpusSearcher(File directory, Charset charset) throws IOException {
+        this(listFiles(directory), charset, ForkJoinPool.commonPool(),
+                Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Indexes the given files, several at a time, on the given pool. The pool
+     * is not shut down.
+     *
+     * @param files          The files to search, in the order hits are
+     *                       given back.
+     * @param charset        The charset the files are encoded in.
+     * @param pool           Runs the indexing and the searches.
+     * @param indexingBudget How many bytes of text can be indexed at once.
+     *                       Building the index of a file takes a few times
+     *                       its size in heap, so this bounds the memory used
+     *                       while indexing. A file larger than the budget is
+     *                       indexed on its own.
+     */
+    public CorpusSearcher(Collection<File> files, Charset charset, ForkJoinPool pool,
+                          long indexingBudget) throws IOException {
+        this(files, charset, Analyzer.standard(), pool, indexingBudget);
+    }
+
+    /**
+     * Same as {@link #CorpusSearcher(Collection, Charset, ForkJoinPool, long)},
+     * making terms out of the files and query words with the given analyzer.
+     */
+    public CorpusSearcher(Collection<File> files, Charset charset, Analyzer analyzer,
+                          ForkJoinPool pool, long indexingBudget) throws IOException {
+        this.files = files.toArray(new File[0]);
+        this.pool = pool;
+        this.analyzer = analyzer;
+        searchers = new TextSearcher[this.files.length];
+        // Permits are kilobytes, so that budgets above 2 GB fit in an int.
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                indexingBudget >> 10));
+        Semaphore inFlight = new Semaphore(budget);
+        List<Future<TextSearcher>> futures = new ArrayList<>();
+        try {
+            for (File file : this.files) {
+                int permits = (int) Math.max(1, Math.min(budget,
+                        file.length() >> 10));
+                // Waits here, not in the pool, for earlier files to be done.
+                inFlight.acquire(permits);
+                futures.add(pool.submit(() -> {
+                    try {
+                        return new TextSearcher(file, charset, analyzer, pool,
+                                SearchMetrics.NONE);
+                    } finally {
+                        inFlight.release(permits);
+                    }
+                }));
+            }
+            for (int i = 0; i < searchers.length; i++) {
+                searchers[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new InterruptedIOException("Interrupted while indexing");
+        } catch (ExecutionException ex) {
+            futures.forEach(future -> future.cancel(true));
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    // Regular files under a directory, sorted by path.
+    private static List<File> listFiles(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            return paths.filter(Files::isRegularFile).sorted()
+                    .map(Path::toFile).collect(Collectors.toList());
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /** The files searched, in document order. */
+    public List<File> getFiles() {
+        return Collections.unmodifiableList(Arrays.asList(files));
+    }
+
+    /**
+     * @param queryWord    The word to search for in the files.
+     * @param contextWords The number of words of context to provide on
+     *                     each side of the query word.
+     * @return Every hit, in document order.
+     */
+    public List<Hit> search(String queryWord, int contextWords) {
+        return search(queryWord, contextWords, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #search(String, int)}, stopping after limit hits.
+     */
+    public List<Hit> search(String queryWord, int contextWords, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        search(queryWord, contextWords, limit, hits::add);
+        return hits;
+    }
+
+    /**
+     * Passes hits to the consumer in document order as files are searched,
+     * on the calling thread. A few files ahead of the one whose hits are
+     * being passed are searched in parallel; once limit hits are passed no
+     * more files are searched.
+     *
+     * @param limit    Most hits to pass, Integer.MAX_VALUE for all of them.
+     * @param consumer Gets the hits.
+     */
+    public void search(String queryWord, int contextWords, int limit,
+                       Consumer<Hit> consumer) {
+        if (limit <= 0) {
+            return;
+        }
+        String term = analyzer.normalize(queryWord);
+        int ahead = 2 * pool.getParallelism();
+        Deque<Future<List<Hit>>> pending = new ArrayDeque<>();
+        int next = 0;
+        int passed = 0;
+        try {
+            while (next < files.length || !pending.isEmpty()) {
+                while (next < files.length && pending.size() < ahead) {
+                    int file = next++;
+                    int remaining = limit - passed;
+                    pending.add(pool.submit(() -> searchFile(file, term,
+                            queryWord, contextWords, remaining)));
+                }
+                for (Hit hit : pending.poll().get()) {
+                    consumer.accept(hit);
+                    if (++passed == limit) {
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            pending.forEach(future -> future.cancel(false));
+        }
+    }
+
+    // The first limit hits of a term in one file. Their context is cut out
+    // of the text once the caller asks for it. The postings are read between
+    // enter() and exit(), so closing the searcher waits before freeing them.
+    private List<Hit> searchFile(int file, String term, String queryWord,
+                                 int contextWords, int limit) {
+        TextSearcher searcher = searchers[file];
+        searcher.enter();
+        try {
+            IndexSnapshot snapshot = searcher.snapshot();
+            IndexSnapshot.TermPositions positions = snapshot.iterator(term);
+            List<Hit> hits = new ArrayList<>();
+            while (hits.size() < limit && positions.hasNext()) {
+                hits.add(new Hit(files[file], positions.nextInt(), searcher,
+                        snapshot, contextWords, queryWord));
+            }
+            return hits;
+        } finally {
+            searcher.exit();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Builds the index file of a text with a bounded amount of heap, for files
+ * much larger than the heap.
+ * <p>
+ * The mapped file is indexed a chunk at a time. The postings and token
+ * offsets of each chunk are spilled to a run file as soon as they are
+ * built, so only the chunk being indexed and the term dictionary are on
+ * the heap. Runs are then merged in groups of consecutive ones into larger
+ * segments: a k-way merge over the term ids of the runs, reading each run
+ * once from the mapped run file, into a second run file. Finally the
+ * segments are copied from the mapped runs into the index file, which is
+ * in the format {@link IndexFile} reads.
+ * <p>
+ * Positions are ints, so a text can have at most 2^31 - 1 words however it
+ * is indexed.
+ */
+final class ExternalIndexBuilder {
+
+    // Chunks shorter than this are not worth a pass of their own.
+    static final long MIN_CHUNK_LENGTH = 1 << 20;
+    // Heap used to index a chunk, per char of the chunk: the token offsets
+    // while they grow and once built, and the postings.
+    private static final int CHUNK_BYTES_PER_CHAR = 8;
+    // Heap used by a merged segment, per char: its postings and offsets.
+    private static final int MERGE_BYTES_PER_CHAR = 4;
+    // Most runs merged at once.
+    private static final int FAN_IN = 64;
+
+    private final TextSearcher indexer;
+    private final long chunkLength;
+    private final long mergedLength;
+
+    /**
+     * @param indexer      Scans and builds chunks with its analyzer, on its
+     *                     executor.
+     * @param chunkLength  Length of the text indexed at once.
+     * @param mergedLength Longest segment runs are merged into, at most
+     *                     {@link TextSearcher#MAX_SEGMENT_LENGTH}.
+     */
+    ExternalIndexBuilder(TextSearcher indexer, long chunkLength, long mergedLength) {
+        this.indexer = indexer;
+        this.chunkLength = chunkLength;
+        this.mergedLength = Math.min(mergedLength, TextSearcher.MAX_SEGMENT_LENGTH);
+    }
+
+    /**
+     * A builder that stays within about memoryLimit bytes of heap, besides
+     * the term dictionary.
+     */
+    static ExternalIndexBuilder forMemoryLimit(Analyzer analyzer,
+                                               ExecutorService executor,
+                                               long memoryLimit) {
+        TextSearcher indexer = new TextSearcher(TextSource.of(""), analyzer,
+                executor, TextSearcher.MIN_SEGMENT_LENGTH);
+        return new ExternalIndexBuilder(indexer,
+                Math.max(MIN_CHUNK_LENGTH, Math.min(TextSearcher.MAX_SEGMENT_LENGTH,
+                        memoryLimit / CHUNK_BYTES_PER_CHAR)),
+                Math.max(MIN_CHUNK_LENGTH, memoryLimit / MERGE_BYTES_PER_CHAR));
+    }
+
+    /** Indexes a file into indexFile. */
+    void build(File source, Charset charset, File indexFile) throws IOException {
+        build(source, IndexFile.Stamp.of(source), charset, indexFile);
+    }
+
+    /**
+     * Indexes the first stamp.length() bytes of a file into indexFile, the
+     * stamp being taken before, see {@link IndexFile.Stamp}.
+     */
+    void build(File source, IndexFile.Stamp stamp, Charset charset,
+               File indexFile) throws IOException {
+        if (!TextSource.MappedSource.supports(charset)) {
+            throw new IOException("Indexing with bounded memory needs an ASCII"
+                    + " compatible charset, not " + charset);
+        }
+        TextSource text = TextSource.map(source, charset, 0, stamp.length());
+        File runs = File.createTempFile(indexFile.getName(), ".runs",
+                indexFile.getAbsoluteFile().getParentFile());
+        File merged = File.createTempFile(indexFile.getName(), ".merged",
+                indexFile.getAbsoluteFile().getParentFile());
+        try (RandomAccessFile runsFile = new RandomAccessFile(runs, "rw");
+             RandomAccessFile mergedFile = new RandomAccessFile(merged, "rw")) {
+            List<Run> spilled = new ArrayList<>();
+            TermDictionary terms = spill(text, runsFile.getChannel(), spilled);
+            TextSearcher.CallableResult[] segments = merge(spilled,
+                    runsFile.getChannel(), mergedFile.getChannel());
+            IndexFile.write(indexFile, stamp, charset, indexer.getAnalyzer(),
+                    new IndexSnapshot(text, terms, segments));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing " + source, ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Could not index " + source, ex.getCause());
+        } finally {
+            deleteSpill(runs);
+            deleteSpill(merged);
+        }
+    }
+
+    // The segments still map the spill files here, and a mapping is only
+    // released when its buffer is collected. Unlinking a mapped file works
+    // on POSIX systems, but fails on Windows, where the file is then left
+    // to be deleted when the JVM exits.
+    private static void deleteSpill(File file) {
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    // Indexes the text chunk by chunk, writing the segments of each to the
+    // run file, and returns the dictionary of every term.
+    private TermDictionary spill(TextSource text, FileChannel channel,
+                                 List<Run> spilled)
+            throws IOException, InterruptedException, ExecutionException {
+        TermDictionary terms = TermDictionary.empty();
+        long words = 0;
+        long start = 0;
+        while (start < text.length()) {
+            long end = chunkEnd(text, start);
+            TextSearcher.ScannedSegment[] scanned = indexer.scan(text, start, end);
+            terms = terms.with(TextSearcher.termsOf(scanned));
+            for (TextSearcher.CallableResult segment : indexer.build(scanned, terms)) {
+                words += segment.getTokenCount();
+                if (words > Integer.MAX_VALUE) {
+                    throw new IOException("More than " + Integer.MAX_VALUE
+                            + " words to index");
+                }
+                spilled.add(Run.write(channel, segment));
+            }
+            start = end;
+        }
+        return terms;
+    }
+
+    // End of the chunk starting at start: chunkLength on, at whitespace so
+    // no word is cut.
+    private long chunkEnd(TextSource text, long start) {
+        long end = Math.min(text.length(), start + chunkLength);
+        while (end < text.length() && !WordScanner.isWhitespace(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    // Merges runs of consecutive segments up to mergedLength long, each
+    // with a k-way merge of their postings, and maps the results.
+    private TextSearcher.CallableResult[] merge(List<Run> spilled,
+                                                FileChannel runs,
+                                                FileChannel merged)
+            throws IOException {
+        List<TextSearcher.CallableResult> segments = new ArrayList<>();
+        int first = 0;
+        while (first < spilled.size()) {
+            int end = first + 1;
+            while (end < spilled.size() && end - first < FAN_IN
+                    && spilled.get(end).textEnd() - spilled.get(first).textStart
+                    <= mergedLength) {
+                end++;
+            }
+            if (end - first == 1) {
+                segments.add(spilled.get(first).map(runs, segments.size()));
+            } else {
+                TextSearcher.CallableResult[] parts =
+                        new TextSearcher.CallableResult[end - first];
+                for (int i = first; i < end; i++) {
+                    parts[i - first] = spilled.get(i).map(runs, i);
+                }
+                Run run = Run.write(merged, mergeSegments(parts));
+                segments.add(run.map(merged, segments.size()));
+            }
+            first = end;
+        }
+        return segments.toArray(new TextSearcher.CallableResult[0]);
+    }
+
+    // One segment with the tokens of consecutive segments.
+    private static TextSearcher.CallableResult mergeSegments(
+            TextSearcher.CallableResult[] parts) {
+        PostingsIndex[] postings = new PostingsIndex[parts.length];
+        TokenOffsets[] offsets = new TokenOffsets[parts.length];
+        int[] bases = new int[parts.length];
+        int[] counts = new int[parts.length];
+        int[] shifts = new int[parts.length];
+        long textStart = parts[0].getTextStart();
+        int tokens = 0;
+        for (int i = 0; i < parts.length; i++) {
+            postings[i] = parts[i].getPostings();
+            offsets[i] = parts[i].getOffsets();
+            bases[i] = tokens;
+            counts[i] = parts[i].getTokenCount();
+            shifts[i] = (int) (parts[i].getTextStart() - textStart);
+            tokens += counts[i];
+        }
+        return new TextSearcher.CallableResult(
+                PostingsIndex.merge(postings, bases, counts), 0, textStart,
+                TokenOffsets.concat(offsets, shifts, counts), tokens);
+    }
+
+    // Where the buffers of a segment were written.
+    private static final class Run {
+        private final long textStart;
+        private final long textLength;
+        private final int tokenCount;
+        private final long postingsOffset;
+        private final int postingsLength;
+        private final long offsetsOffset;
+        private final int offsetsLength;
+
+        private Run(long textStart, long textLength, int tokenCount,
+                    long postingsOffset, int postingsLength,
+                    long offsetsOffset, int offsetsLength) {
+            this.textStart = textStart;
+            this.textLength = textLength;
+            this.tokenCount = tokenCount;
+            this.postingsOffset = postingsOffset;
+            this.postingsLength = postingsLength;
+            this.offsetsOffset = offsetsOffset;
+            this.offsetsLength = offsetsLength;
+        }
+
+        // Appends the buffers of a segment to the channel.
+        static Run write(FileChannel channel, TextSearcher.CallableResult segment)
+                throws IOException {
+            ByteBuffer postings = segment.getPostings().buffer();
+            ByteBuffer offsets = segment.getOffsets().buffer();
+            TokenOffsets tokenOffsets = segment.getOffsets();
+            int count = segment.getTokenCount();
+            long textLength = count == 0 ? 0 : tokenOffsets.end(count - 1);
+            long postingsOffset = channel.size();
+            int postingsLength = postings.remaining();
+            IndexFile.writeFully(channel, postings, postingsOffset);
+            long offsetsOffset = postingsOffset + postingsLength;
+            int offsetsLength = offsets.remaining();
+            IndexFile.writeFully(channel, offsets, offsetsOffset);
+            return new Run(segment.getTextStart(), textLength, count,
+                    postingsOffset, postingsLength, offsetsOffset, offsetsLength);
+        }
+
+        long textEnd() {
+            return textStart + textLength;
+        }
+
+        TextSearcher.CallableResult map(FileChannel channel, int threadPosition)
+                throws IOException {
+            return new TextSearcher.CallableResult(
+                    PostingsIndex.wrap(map(channel, postingsOffset, postingsLength)),
+                    threadPosition, textStart,
+                    TokenOffsets.wrap(map(channel, offsetsOffset, offsetsLength)),
+                    tokenCount);
+        }
+
+        private static ByteBuffer map(FileChannel channel, long offset, int length)
+                throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
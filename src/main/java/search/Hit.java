@@ -0,0 +1,76 @@
+package search;
+
+import java.io.File;
+
+/**
+ * A place where a word was found. The context around it is only cut out of
+ * the text when it is asked for, so hits that are only counted or skipped
+ * cost next to nothing. A hit keeps the version of the index it was found
+ * in reachable, text included, for as long as it is kept. Its context can't
+ * be asked for once the searcher it came from is closed.
+ */
+public final class Hit {
+    private final File file;
+    private final int position;
+    private final TextSearcher searcher;
+    private final IndexSnapshot snapshot;
+    private final int contextWords;
+    private final String word;
+    // Cut out of the text on first use.
+    private String context;
+
+    Hit(File file, int position, TextSearcher searcher, IndexSnapshot snapshot,
+        int contextWords, String word) {
+        this.file = file;
+        this.position = position;
+        this.searcher = searcher;
+        this.snapshot = snapshot;
+        this.contextWords = contextWords;
+        this.word = word;
+    }
+
+    /**
+     * The file the word was found in, for hits of a {@link CorpusSearcher},
+     * otherwise null.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /** Position of the word among the words of the text, from 0. */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * The word with its context, like {@link TextSearcher#search(String, int)}
+     * gives it.
+     *
+     * @throws IllegalStateException if the context was not asked for before
+     *                               the searcher was closed.
+     */
+    public String getContext() {
+        String context = this.context;
+        if (context == null) {
+            int[] positions = { position };
+            if (contextWords > 0) {
+                searcher.enter();
+                try {
+                    context = snapshot.contexts(positions, positions,
+                            contextWords)[0];
+                } finally {
+                    searcher.exit();
+                }
+            } else {
+                context = word;
+            }
+            this.context = context;
+        }
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        return (file == null ? "" : file + ":") + position + ": " + getContext();
+    }
+}
@@ -0,0 +1,295 @@
+package search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the index of a text file, so that it does not have to be
+ * rebuilt every time the file is opened.
+ * <p>
+ * The file holds a header describing the source file and the segments,
+ * followed by the term dictionary and by the postings and token offsets
+ * buffers of every segment, exactly as they are laid out in memory. Reading
+ * maps those regions instead of loading them, so reopening costs next to
+ * nothing until searches touch the pages.
+ * <p>
+ * An index is only used if it was written by the same version of this class,
+ * for the same charset and analyzer, and the source file still has the
+ * length, modification time and checksum it had before it was indexed. The
+ * checksum only covers the first and last megabyte, on purpose: hashing all
+ * of the file would make reopening as slow as indexing, so an edit in the
+ * middle that keeps the length and the modification time goes unnoticed.
+ * Anything else wrong with the index file makes it rebuilt, not an error.
+ */
+final class IndexFile {
+
+    static final int MAGIC = 0x58495354; // "TSIX" in little endian
+    static final int VERSION = 7;
+
+    // The checksum covers this many bytes at the start and end of the file.
+    private static final int CHECKSUM_SPAN = 1 << 20;
+
+    private IndexFile() {
+    }
+
+    /**
+     * The length, modification time and checksum of a source file, taken
+     * before its text is mapped, so that an index only claims to cover the
+     * text it was built from even if the file grows meanwhile.
+     */
+    static final class Stamp {
+        private final long length;
+        private final long lastModified;
+        private final long checksum;
+
+        private Stamp(long length, long lastModified, long checksum) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+        static Stamp of(File source) throws IOException {
+            // Modified before measured: an append in between leaves a time
+            // or a length that the file does not have any more.
+            long lastModified = source.lastModified();
+            long length = source.length();
+            return new Stamp(length, lastModified, checksum(source, length));
+        }
+
+        /** Bytes of the file to index. */
+        long length() {
+            return length;
+        }
+    }
+
+    /** Where the index of a file is kept by default: next to it. */
+    static File defaultFor(File source) {
+        return new File(source.getPath() + ".idx");
+    }
+
+    /**
+     * Writes an index. The file is written under a temporary name and moved
+     * in place, so readers never see a partial index.
+     */
+    static void write(File indexFile, Stamp source, Charset charset,
+                      Analyzer analyzer, IndexSnapshot snapshot) throws IOException {
+        TextSearcher.CallableResult[] segments = snapshot.segments();
+        ByteBuffer terms = snapshot.terms().buffer();
+        byte[] keyBytes = key(charset, analyzer).getBytes(StandardCharsets.UTF_8);
+        int headerLength = 52 + keyBytes.length + 36 * segments.length;
+        ByteBuffer header = ByteBuffer.allocate(headerLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION);
+        header.putLong(source.length).putLong(source.lastModified)
+                .putLong(source.checksum);
+        header.putInt(keyBytes.length).put(keyBytes);
+        header.putInt(segments.length);
+        long position = align(headerLength);
+        header.putLong(position).putInt(terms.remaining());
+        position = align(position + terms.remaining());
+        for (TextSearcher.CallableResult segment : segments) {
+            int postingsLength = (int) segment.getPostings().sizeInBytes();
+            int offsetsLength = (int) segment.getOffsets().sizeInBytes();
+            header.putLong(segment.getTextStart()).putInt(segment.getTokenCount());
+            header.putLong(position).putInt(postingsLength);
+            position = align(position + postingsLength);
+            header.putLong(position).putInt(offsetsLength);
+            position = align(position + offsetsLength);
+        }
+        header.flip();
+
+        // A name of its own, so that writers of the same index don't write
+        // to each other's file.
+        File temp = File.createTempFile(indexFile.getName() + ".", ".tmp",
+                indexFile.getAbsoluteFile().getParentFile());
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+                position = align(headerLength);
+                int termsLength = terms.remaining();
+                writeFully(channel, terms, position);
+                position = align(position + termsLength);
+                for (TextSearcher.CallableResult segment : segments) {
+                    ByteBuffer postings = segment.getPostings().buffer();
+                    writeFully(channel, postings, position);
+                    position = align(position + postings.capacity());
+                    ByteBuffer offsets = segment.getOffsets().buffer();
+                    writeFully(channel, offsets, position);
+                    position = align(position + offsets.capacity());
+                }
+                channel.force(false);
+            }
+            Files.move(temp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Maps an index.
+     *
+     * @param source the source file as the text was mapped.
+     * @param text   the text of the source file.
+     * @return the index, or null if there is no usable index for the source
+     * file in indexFile, because it is stale, truncated or corrupt.
+     * @throws IOException if the index file could not be read.
+     */
+    static IndexSnapshot read(File indexFile, Stamp source, Charset charset,
+                              Analyzer analyzer, TextSource text) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(36)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(channel, header, 0)) {
+                return null;
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != source.length
+                    || header.getLong() != source.lastModified
+                    || header.getLong() != source.checksum) {
+                return null;
+            }
+            int keyLength = header.getInt();
+            if (keyLength < 0 || keyLength > 1 << 16) {
+                return null;
+            }
+            ByteBuffer rest = ByteBuffer.allocate(keyLength + 16)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(channel, rest, 36)) {
+                return null;
+            }
+            rest.flip();
+            byte[] keyBytes = new byte[keyLength];
+            rest.get(keyBytes);
+            if (!key(charset, analyzer).equals(new String(keyBytes,
+                    StandardCharsets.UTF_8))) {
+                return null;
+            }
+            int count = rest.getInt();
+            long termsOffset = rest.getLong();
+            int termsLength = rest.getInt();
+            // Nothing read from the file is trusted to size a buffer before
+            // it is checked against the length of the file.
+            if (count < 0 || 52L + keyLength + 36L * count > channel.size()) {
+                return null;
+            }
+            ByteBuffer segmentTable = ByteBuffer.allocate(36 * count)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(channel, segmentTable, 52 + keyLength)) {
+                return null;
+            }
+            segmentTable.flip();
+            ByteBuffer termsBuffer = map(channel, termsOffset, termsLength);
+            if (termsBuffer == null) {
+                return null;
+            }
+            try {
+                TermDictionary terms = TermDictionary.wrap(termsBuffer);
+                TextSearcher.CallableResult[] segments =
+                        new TextSearcher.CallableResult[count];
+                for (int i = 0; i < count; i++) {
+                    long textStart = segmentTable.getLong();
+                    int tokenCount = segmentTable.getInt();
+                    ByteBuffer postings = map(channel, segmentTable.getLong(),
+                            segmentTable.getInt());
+                    ByteBuffer offsets = map(channel, segmentTable.getLong(),
+                            segmentTable.getInt());
+                    if (postings == null || offsets == null || textStart < 0
+                            || textStart > source.length || tokenCount < 0) {
+                        return null;
+                    }
+                    segments[i] = new TextSearcher.CallableResult(
+                            PostingsIndex.wrap(postings), i, textStart,
+                            TokenOffsets.wrap(offsets), tokenCount);
+                }
+                return new IndexSnapshot(text, terms, segments);
+            } catch (IndexOutOfBoundsException ex) {
+                // A buffer too short for the header it starts with.
+                return null;
+            }
+        }
+    }
+
+    // Names the charset and the analyzer, which an index is only used with.
+    private static String key(Charset charset, Analyzer analyzer) {
+        return charset.name() + " " + analyzer;
+    }
+
+    /**
+     * CRC32 of the length and of the first and last megabyte of the first
+     * length bytes of a file. Reading the whole file would cost as much as
+     * indexing it again, so changes in the middle of a file that keep its
+     * length and modification time are not detected.
+     */
+    static long checksum(File source, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, length).array());
+        try (RandomAccessFile raf = new RandomAccessFile(source, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length,
+                    CHECKSUM_SPAN));
+            readFully(channel, buffer, 0);
+            crc.update(buffer.array(), 0, buffer.position());
+            if (length > CHECKSUM_SPAN) {
+                buffer.clear();
+                readFully(channel, buffer, Math.max(CHECKSUM_SPAN,
+                        length - CHECKSUM_SPAN));
+                crc.update(buffer.array(), 0, buffer.position());
+            }
+        }
+        return crc.getValue();
+    }
+
+    // Null if the region is not all in the file, which is then truncated or
+    // corrupt.
+    private static ByteBuffer map(FileChannel channel, long position, int length)
+            throws IOException {
+        if (position < 0 || length < 0 || position + length > channel.size()) {
+            return null;
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    // Buffers start on 8 byte boundaries.
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    // Writes all of buffer at position, also used for the spill files of
+    // ExternalIndexBuilder.
+    static void writeFully(FileChannel channel, ByteBuffer buffer,
+                           long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // False if the file ends before the buffer is full.
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer,
+                                     long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+}
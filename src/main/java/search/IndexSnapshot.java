@@ -0,0 +1,540 @@
+package search;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable, complete index: the text, the segments built from it and
+ * the dictionary of the terms they use.
+ * A TextSearcher replaces its snapshot as a whole when the index changes, so
+ * any number of threads can search one without locking, and a search always
+ * sees a single consistent version of the index.
+ * <p>
+ * Each segment is a shard with its own postings and token offsets, covering
+ * a run of the text. A query that decodes many positions or cuts many
+ * contexts splits the work across the threads of a ForkJoin pool, and since
+ * shards are in text order their sorted results are put side by side
+ * rather than sorted together.
+ */
+final class IndexSnapshot {
+
+    // Longest stretch of text read at once for overlapping contexts.
+    static final long MAX_RUN_LENGTH = 1 << 16;
+    // Fewest positions or contexts a query works on across threads, below
+    // which handing them out costs more than it saves.
+    static final int PARALLEL_THRESHOLD = 1 << 14;
+    // Contexts cut by one thread at a time.
+    private static final int CONTEXT_BATCH = 1 << 12;
+
+    // The original text. Context is cut out of it using the token offsets.
+    private final TextSource text;
+    // Every term of the segments, which refer to terms by id.
+    private final TermDictionary terms;
+    // The result of each segment, in text order.
+    private final TextSearcher.CallableResult[] segments;
+    // Running token count at the end of each segment.
+    private final int[] wordCounts;
+
+    IndexSnapshot(TextSource text, TermDictionary terms,
+                  TextSearcher.CallableResult[] segments) {
+        this.text = text;
+        this.terms = terms;
+        this.segments = segments.clone();
+        wordCounts = new int[segments.length];
+        int runningCount = 0;
+        //Keeps the running token count so that segment positions can be
+        //turned into positions in the whole text.
+        for (int i = 0; i < segments.length; i++) {
+            runningCount = runningCount + segments[i].getTokenCount();
+            wordCounts[i] = runningCount;
+        }
+    }
+
+    TextSource text() {
+        return text;
+    }
+
+    TermDictionary terms() {
+        return terms;
+    }
+
+    /** The segments, in text order. */
+    TextSearcher.CallableResult[] segments() {
+        return segments.clone();
+    }
+
+    /**
+     * This index, with the dictionary, postings and token offsets moved out
+     * of the heap. Segments that are out of it already are kept as they are,
+     * so the same ones are found in both snapshots.
+     */
+    IndexSnapshot offHeap(OffHeapMemory memory) {
+        TermDictionary movedTerms = terms.offHeap(memory);
+        TextSearcher.CallableResult[] moved = segments.clone();
+        boolean changed = movedTerms != terms;
+        for (int i = 0; i < segments.length; i++) {
+            moved[i] = segments[i].offHeap(memory);
+            changed |= moved[i] != segments[i];
+        }
+        return changed ? new IndexSnapshot(text, movedTerms, moved) : this;
+    }
+
+    /** Number of tokens in the whole text. */
+    int tokenCount() {
+        return segments.length == 0 ? 0 : wordCounts[segments.length - 1];
+    }
+
+    /** Size of the index in bytes, not counting the text. */
+    long sizeInBytes() {
+        long bytes = 4L * wordCounts.length + terms.sizeInBytes();
+        for (TextSearcher.CallableResult segment : segments) {
+            bytes += segment.getPostings().sizeInBytes()
+                    + segment.getOffsets().sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Positions of each of the terms in the whole text, in increasing order.
+     * Terms are looked up in the dictionary once, and segments are visited
+     * once for all the terms.
+     *
+     * @param terms normalized terms.
+     */
+    int[][] positions(String[] terms) {
+        int[] ids = new int[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            ids[t] = this.terms.find(terms[t]);
+        }
+        return positions(ids);
+    }
+
+    /**
+     * The positions of any of the terms with the given ids, in increasing
+     * order. Each segment merges the positions of the terms it holds, and
+     * segments follow each other in text order, so nothing is sorted.
+     */
+    int[] positionsOfAny(int[] ids) {
+        int[][] termIndexes = termIndexes(ids);
+        // Where the positions of each segment go.
+        int[] starts = new int[segments.length + 1];
+        for (int i = 0; i < segments.length; i++) {
+            starts[i + 1] = starts[i];
+            for (int t = 0; t < ids.length; t++) {
+                if (termIndexes[i][t] >= 0) {
+                    starts[i + 1] += segments[i].getPostings().count(
+                            termIndexes[i][t]);
+                }
+            }
+        }
+        int[] all = new int[starts[segments.length]];
+        int[] ends = new int[segments.length];
+        forEach(segments.length, all.length, i -> {
+            int[][] lists = new int[ids.length][];
+            for (int t = 0; t < ids.length; t++) {
+                lists[t] = decode(i, termIndexes[i][t]);
+            }
+            // A position holds a single term, so there are no duplicates.
+            ends[i] = Positions.merge(lists, all, starts[i]);
+        });
+        return compact(all, starts, ends);
+    }
+
+    private int[][] positions(int[] ids) {
+        // Segments are in text order and each one keeps its positions sorted,
+        // so each segment decodes its positions into its own part of the
+        // array of a term, in parallel with the others.
+        int[][] termIndexes = termIndexes(ids);
+        int[][] starts = new int[ids.length][segments.length + 1];
+        int total = 0;
+        for (int t = 0; t < ids.length; t++) {
+            for (int i = 0; i < segments.length; i++) {
+                starts[t][i + 1] = starts[t][i] + (termIndexes[i][t] < 0 ? 0
+                        : segments[i].getPostings().count(termIndexes[i][t]));
+            }
+            total += starts[t][segments.length];
+        }
+        int[][] positions = new int[ids.length][];
+        int[][] ends = new int[ids.length][segments.length];
+        for (int t = 0; t < ids.length; t++) {
+            positions[t] = new int[starts[t][segments.length]];
+        }
+        forEach(segments.length, total, i -> {
+            for (int t = 0; t < ids.length; t++) {
+                ends[t][i] = termIndexes[i][t] < 0 ? starts[t][i]
+                        : segments[i].getPostings().decode(termIndexes[i][t],
+                        i == 0 ? 0 : wordCounts[i - 1],
+                        segments[i].getTokenCount(), positions[t],
+                        starts[t][i]);
+            }
+        });
+        for (int t = 0; t < ids.length; t++) {
+            positions[t] = compact(positions[t], starts[t], ends[t]);
+        }
+        return positions;
+    }
+
+    // Index of each term in the postings of each segment, by segment.
+    private int[][] termIndexes(int[] ids) {
+        int[][] termIndexes = new int[segments.length][ids.length];
+        for (int i = 0; i < segments.length; i++) {
+            PostingsIndex postings = segments[i].getPostings();
+            for (int t = 0; t < ids.length; t++) {
+                termIndexes[i][t] = postings.find(ids[t]);
+            }
+        }
+        return termIndexes;
+    }
+
+    // Positions of the term with the given index in a segment, none if it
+    // is negative.
+    private int[] decode(int segment, int termIndex) {
+        if (termIndex < 0) {
+            return new int[0];
+        }
+        PostingsIndex postings = segments[segment].getPostings();
+        int[] positions = new int[postings.count(termIndex)];
+        int n = postings.decode(termIndex,
+                segment == 0 ? 0 : wordCounts[segment - 1],
+                segments[segment].getTokenCount(), positions, 0);
+        return n == positions.length ? positions : Arrays.copyOf(positions, n);
+    }
+
+    // Closes the gaps between the parts of values. A segment whose last
+    // token moved to the next one still counts it, so its part can end
+    // before the next one starts.
+    private static int[] compact(int[] values, int[] starts, int[] ends) {
+        int n = 0;
+        for (int i = 0; i < ends.length; i++) {
+            if (n != starts[i]) {
+                System.arraycopy(values, starts[i], values, n, ends[i] - starts[i]);
+            }
+            n += ends[i] - starts[i];
+        }
+        return n == values.length ? values : Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Runs task for each index below n. Once there are at least
+     * PARALLEL_THRESHOLD values to work on, indexes are handed out to the
+     * threads of the ForkJoin pool the caller runs in, or of the common pool
+     * for other callers, which also works on them while it waits.
+     */
+    private static void forEach(int n, int values, IntConsumer task) {
+        if (n < 2 || values < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < n; i++) {
+                task.accept(i);
+            }
+        } else {
+            new RangeAction(0, n, task).invoke();
+        }
+    }
+
+    // Splits a range of indexes in halves until single ones are left.
+    private static final class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer task;
+
+        RangeAction(int from, int to, IntConsumer task) {
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                task.accept(from);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeAction(from, mid, task),
+                        new RangeAction(mid, to, task));
+            }
+        }
+    }
+
+    /**
+     * Number of occurrences of a normalized term, without decoding its
+     * positions.
+     */
+    int count(String term) {
+        int id = terms.find(term);
+        if (id < 0) {
+            return 0;
+        }
+        int count = 0;
+        for (TextSearcher.CallableResult segment : segments) {
+            int termIndex = segment.getPostings().find(id);
+            if (termIndex >= 0) {
+                count += count(segment, termIndex);
+            }
+        }
+        return count;
+    }
+
+    // Occurrences of a term in a segment. Only a segment whose last token
+    // moved to the next one has to decode one block to tell.
+    private static int count(TextSearcher.CallableResult segment, int termIndex) {
+        PostingsIndex postings = segment.getPostings();
+        if (segment.getTokenCount() == segment.getOffsets().size()) {
+            return postings.count(termIndex);
+        }
+        return postings.countBelow(termIndex, segment.getTokenCount());
+    }
+
+    /**
+     * Spans of the places where the normalized terms occur one right after
+     * the other, like {@link Positions#phrase(int[][])}. Only the positions
+     * of the rarest term are decoded in full; the others are looked up block
+     * by block with their skip data, so a phrase with a common word does not
+     * decode all of its positions.
+     */
+    int[][] phrase(String[] terms) {
+        int rarest = 0;
+        int[] counts = new int[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            counts[t] = count(terms[t]);
+            if (counts[t] < counts[rarest]) {
+                rarest = t;
+            }
+        }
+        int[] driver = positions(new String[] { terms[rarest] })[0];
+        TermPositions[] others = new TermPositions[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            others[t] = iterator(terms[t]);
+        }
+        int[] firsts = new int[driver.length];
+        int n = 0;
+        for (int position : driver) {
+            int start = position - rarest;
+            boolean match = start >= 0;
+            for (int t = 0; match && t < terms.length; t++) {
+                if (t != rarest) {
+                    others[t].advance(start + t);
+                    match = others[t].hasNext() && others[t].peek() == start + t;
+                }
+            }
+            if (match) {
+                firsts[n++] = start;
+            }
+        }
+        int[] lasts = new int[n];
+        for (int i = 0; i < n; i++) {
+            lasts[i] = firsts[i] + terms.length - 1;
+        }
+        return new int[][] { Arrays.copyOf(firsts, n), lasts };
+    }
+
+    /**
+     * The positions of a normalized term in the whole text, in increasing
+     * order, decoded as they are read.
+     */
+    TermPositions iterator(String term) {
+        return new TermPositions(terms.find(term));
+    }
+
+    /**
+     * Positions of a term, read segment by segment. Whole segments are
+     * skipped by their counts, without decoding them. Not thread safe.
+     */
+    final class TermPositions implements PrimitiveIterator.OfInt {
+        // Id of the term, negative if it does not occur.
+        private final int id;
+        // The next segment to look at.
+        private int segment;
+        private PostingsIndex.Cursor cursor;
+
+        private TermPositions(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (cursor == null || !cursor.hasNext()) {
+                if (segment == segments.length) {
+                    return false;
+                }
+                cursor = cursor(segment++);
+            }
+            return true;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return cursor.next();
+        }
+
+        /** The next position, without moving past it. */
+        int peek() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return cursor.peek();
+        }
+
+        /**
+         * Skips up to n positions.
+         *
+         * @return how many were skipped, less than n at the end.
+         */
+        int skip(int n) {
+            int skipped = cursor == null ? 0 : cursor.skip(n);
+            while (skipped < n && segment < segments.length) {
+                TextSearcher.CallableResult result = segments[segment];
+                int termIndex = result.getPostings().find(id);
+                int count = termIndex < 0 ? 0 : count(result, termIndex);
+                if (skipped + count <= n) {
+                    skipped += count;
+                    segment++;
+                    cursor = null;
+                } else {
+                    cursor = cursor(segment++);
+                    skipped += cursor.skip(n - skipped);
+                }
+            }
+            return skipped;
+        }
+
+        /**
+         * Moves on to the first position not less than target. Segments
+         * ending before it are passed over, and within a segment blocks are
+         * looked up without decoding the ones before.
+         */
+        void advance(int target) {
+            if (cursor != null) {
+                cursor.advance(target);
+                if (cursor.hasNext()) {
+                    return;
+                }
+                cursor = null;
+            }
+            while (segment < segments.length && wordCounts[segment] <= target) {
+                segment++;
+            }
+            while (hasNext()) {
+                cursor.advance(target);
+                if (cursor.hasNext()) {
+                    return;
+                }
+            }
+        }
+
+        // Cursor over the term in a segment, or null if it does not occur.
+        private PostingsIndex.Cursor cursor(int i) {
+            PostingsIndex postings = segments[i].getPostings();
+            int termIndex = postings.find(id);
+            return termIndex < 0 ? null : postings.cursor(termIndex,
+                    i == 0 ? 0 : wordCounts[i - 1], segments[i].getTokenCount());
+        }
+    }
+
+    /**
+     * Cuts the context around each match out of the original text, from the
+     * start of the first context word to the end of the last one. Whitespace
+     * in between is kept as it is in the text. Windows that overlap are read
+     * from the text together.
+     *
+     * @param firsts       position of the first token of each match, sorted.
+     * @param lasts        position of the last token of each match.
+     * @param contextWords number of words on each side of each match.
+     */
+    String[] contexts(int[] firsts, int[] lasts, int contextWords) {
+        String[] contexts = new String[firsts.length];
+        // Batches of matches are cut on different threads when there are
+        // many. A run of overlapping windows ends with its batch.
+        int batches = (firsts.length + CONTEXT_BATCH - 1) / CONTEXT_BATCH;
+        forEach(batches, firsts.length, batch -> contexts(firsts, lasts,
+                contextWords, batch * CONTEXT_BATCH, Math.min(CONTEXT_BATCH,
+                        firsts.length - batch * CONTEXT_BATCH), contexts));
+        return contexts;
+    }
+
+    // Contexts of the n matches from from on.
+    private void contexts(int[] firsts, int[] lasts, int contextWords,
+                          int from, int n, String[] contexts) {
+        int tokenCount = tokenCount();
+        long[] starts = new long[n];
+        long[] ends = new long[n];
+        for (int i = 0; i < n; i++) {
+            int first = firsts[from + i];
+            int last = lasts[from + i];
+            starts[i] = tokenStart(Math.max(0, first - contextWords));
+            ends[i] = tokenEnd(Math.min(tokenCount - 1, last + contextWords));
+            // Context that runs out of words takes what is left of the
+            // first or last run of non whitespace chars, like the "." after
+            // the last word of a text.
+            if (contextWords > 0 && first - contextWords < 0) {
+                while (starts[i] > 0
+                        && !WordScanner.isWhitespace(text.charAt(starts[i] - 1))) {
+                    starts[i]--;
+                }
+            }
+            if (contextWords > 0 && last + contextWords >= tokenCount) {
+                while (ends[i] < text.length()
+                        && !WordScanner.isWhitespace(text.charAt(ends[i]))) {
+                    ends[i]++;
+                }
+            }
+        }
+        int i = 0;
+        while (i < n) {
+            // Grows the run while the next window overlaps it.
+            long runEnd = ends[i];
+            int j = i + 1;
+            while (j < n && starts[j] < runEnd
+                    && ends[j] - starts[i] <= MAX_RUN_LENGTH) {
+                runEnd = Math.max(runEnd, ends[j]);
+                j++;
+            }
+            TextSource run = text.region(starts[i], runEnd);
+            for (int k = i; k < j; k++) {
+                String context = run.substring(starts[k], ends[k]);
+                // A trailing comma only separates the context from the rest
+                // of the text.
+                contexts[from + k] = context.endsWith(",")
+                        ? context.substring(0, context.length() - 1) : context;
+            }
+            i = j;
+        }
+    }
+
+    private long tokenStart(int position) {
+        int segment = segmentOf(position);
+        TextSearcher.CallableResult result = segments[segment];
+        return result.getTextStart() + result.getOffsets().start(position
+                - (segment == 0 ? 0 : wordCounts[segment - 1]));
+    }
+
+    private long tokenEnd(int position) {
+        int segment = segmentOf(position);
+        TextSearcher.CallableResult result = segments[segment];
+        return result.getTextStart() + result.getOffsets().end(position
+                - (segment == 0 ? 0 : wordCounts[segment - 1]));
+    }
+
+    // Index of the segment holding the token at position: the first one
+    // whose running count is past it. Empty segments repeat a count, so this
+    // can't be a plain binary search for the position.
+    private int segmentOf(int position) {
+        int low = 0;
+        int high = wordCounts.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (wordCounts[mid] > position) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+}
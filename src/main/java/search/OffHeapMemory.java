@@ -0,0 +1,112 @@
+package search;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Direct memory outside the Java heap for the buffers of an index, so that
+ * however large the index, the garbage collector has next to nothing of it
+ * to trace or copy.
+ * <p>
+ * Buffers are freed like any direct buffer once nothing uses them, by the
+ * collector, or all at once by {@link #close()}. Nothing may read them after
+ * that: it is up to the owner to wait for the searches using them.
+ */
+final class OffHeapMemory implements Closeable {
+
+    // Frees a direct buffer right away, or leaves it to the collector if the
+    // JVM offers no way to.
+    private static final Consumer<ByteBuffer> FREE = freer();
+
+    // Every buffer copied and not collected yet. Views of a buffer keep it
+    // reachable, so one is only collected once the index dropped it.
+    private final List<WeakReference<ByteBuffer>> buffers = new ArrayList<>();
+    // Buffers that can be in the list before collected ones are dropped.
+    private int pruneAt = 64;
+    private boolean closed;
+
+    /**
+     * The buffer itself if it is outside the heap already, like a mapped
+     * one, or else a little endian direct copy of it from 0 to its capacity.
+     */
+    synchronized ByteBuffer copy(ByteBuffer buffer) {
+        if (closed) {
+            throw new IllegalStateException("Off heap memory is freed");
+        }
+        if (buffer.isDirect()) {
+            return buffer;
+        }
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        ByteBuffer copy = ByteBuffer.allocateDirect(source.remaining());
+        copy.put(source);
+        copy.clear();
+        if (buffers.size() >= pruneAt) {
+            buffers.removeIf(reference -> reference.get() == null);
+            pruneAt = Math.max(64, 2 * buffers.size());
+        }
+        buffers.add(new WeakReference<>(copy));
+        return copy.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Frees every buffer still in use. Copying more is not allowed after. */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (WeakReference<ByteBuffer> reference : buffers) {
+            ByteBuffer buffer = reference.get();
+            if (buffer != null) {
+                FREE.accept(buffer);
+            }
+        }
+        buffers.clear();
+    }
+
+    // Unsafe.invokeCleaner from Java 9 on, the cleaner of the buffer before.
+    private static Consumer<ByteBuffer> freer() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+                    ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Java 8.
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer")
+                    .getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                try {
+                    clean.invoke(cleaner.invoke(buffer));
+                } catch (ReflectiveOperationException | RuntimeException ex) {
+                    // Left to the collector.
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return buffer -> {
+            };
+        }
+    }
+
+    private static void invoke(Method method, Object target, Object argument) {
+        try {
+            method.invoke(target, argument);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Left to the collector.
+        }
+    }
+}
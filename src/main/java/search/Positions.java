@@ -0,0 +1,208 @@
+package search;
+
+import java.util.Arrays;
+
+/**
+ * Operations on sorted lists of token positions, used to answer phrase and
+ * proximity queries and to combine the hits of several terms. Lists are
+ * intersected with galloping (exponential) search, so the cost depends on
+ * the shorter list, not the longer one.
+ * <p>
+ * Matches are returned as spans: two parallel arrays holding the position of
+ * the first and of the last token of each match, ordered by first position.
+ */
+final class Positions {
+
+    private Positions() {
+    }
+
+    /**
+     * Index of the first value in a, at or after from, that is not less
+     * than target, or a.length if there is none.
+     */
+    static int gallop(int[] a, int from, int target) {
+        if (from >= a.length || a[from] >= target) {
+            return from;
+        }
+        // a[low] < target from here on.
+        int low = from;
+        int step = 1;
+        int high = from + step;
+        while (high < a.length && a[high] < target) {
+            low = high;
+            step <<= 1;
+            high = low + step;
+        }
+        high = Math.min(high, a.length);
+        // Binary search in (low, high].
+        while (low + 1 < high) {
+            int mid = (low + high) >>> 1;
+            if (a[mid] < target) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Finds where the terms occur one right after the other.
+     *
+     * @param lists positions of each term of the phrase, in phrase order.
+     * @return spans covering each occurrence of the phrase.
+     */
+    static int[][] phrase(int[][] lists) {
+        if (lists.length == 0) {
+            return new int[][] { new int[0], new int[0] };
+        }
+        // Drive from the rarest term, gallop through the others.
+        int rarest = 0;
+        for (int i = 1; i < lists.length; i++) {
+            if (lists[i].length < lists[rarest].length) {
+                rarest = i;
+            }
+        }
+        int[] cursors = new int[lists.length];
+        int[] firsts = new int[lists[rarest].length];
+        int n = 0;
+        for (int position : lists[rarest]) {
+            int start = position - rarest;
+            boolean match = start >= 0;
+            for (int i = 0; match && i < lists.length; i++) {
+                if (i != rarest) {
+                    cursors[i] = gallop(lists[i], cursors[i], start + i);
+                    match = cursors[i] < lists[i].length
+                            && lists[i][cursors[i]] == start + i;
+                }
+            }
+            if (match) {
+                firsts[n++] = start;
+            }
+        }
+        int[] lasts = new int[n];
+        for (int i = 0; i < n; i++) {
+            lasts[i] = firsts[i] + lists.length - 1;
+        }
+        return new int[][] { Arrays.copyOf(firsts, n), lasts };
+    }
+
+    /**
+     * Finds where a term occurs within distance positions of another one, in
+     * either order. Each occurrence of the first term that has an occurrence
+     * of the second close enough gives one match, spanning the two, using
+     * the nearest occurrence (the earlier one on a tie).
+     */
+    static int[][] near(int[] a, int[] b, int distance) {
+        int[] firsts = new int[a.length];
+        int[] lasts = new int[a.length];
+        int n = 0;
+        int cursor = 0;
+        for (int position : a) {
+            // In longs, as a distance can be up to Integer.MAX_VALUE.
+            long last = (long) position + distance;
+            cursor = gallop(b, cursor,
+                    (int) Math.max(0, (long) position - distance));
+            int best = -1;
+            for (int i = cursor; i < b.length && b[i] <= last; i++) {
+                if (b[i] != position && (best < 0
+                        || Math.abs(b[i] - position) < Math.abs(best - position))) {
+                    best = b[i];
+                }
+            }
+            if (best >= 0) {
+                firsts[n] = Math.min(position, best);
+                lasts[n] = Math.max(position, best);
+                n++;
+            }
+        }
+        return sort(Arrays.copyOf(firsts, n), Arrays.copyOf(lasts, n));
+    }
+
+    /**
+     * Merges sorted lists into one sorted list, keeping duplicates. The
+     * lists are merged k ways at once through a heap of their next values,
+     * so the cost grows with the log of the number of lists rather than of
+     * the number of values, as sorting them together would.
+     */
+    static int[] merge(int[][] lists) {
+        int total = 0;
+        for (int[] list : lists) {
+            total += list.length;
+        }
+        int[] merged = new int[total];
+        merge(lists, merged, 0);
+        return merged;
+    }
+
+    /**
+     * Same as {@link #merge(int[][])}, into dest at destPos.
+     *
+     * @return the position in dest after the last value merged.
+     */
+    static int merge(int[][] lists, int[] dest, int destPos) {
+        // Lists with values left, the one with the smallest next value on
+        // top.
+        int[] heap = new int[lists.length];
+        int[] cursors = new int[lists.length];
+        int size = 0;
+        for (int i = 0; i < lists.length; i++) {
+            if (lists[i].length > 0) {
+                heap[size++] = i;
+            }
+        }
+        if (size == 1) {
+            int[] list = lists[heap[0]];
+            System.arraycopy(list, 0, dest, destPos, list.length);
+            return destPos + list.length;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(lists, cursors, heap, size, i);
+        }
+        int p = destPos;
+        while (size > 0) {
+            int top = heap[0];
+            dest[p++] = lists[top][cursors[top]++];
+            if (cursors[top] == lists[top].length) {
+                heap[0] = heap[--size];
+            }
+            if (size > 1) {
+                siftDown(lists, cursors, heap, size, 0);
+            }
+        }
+        return p;
+    }
+
+    private static void siftDown(int[][] lists, int[] cursors, int[] heap,
+                                 int size, int i) {
+        int list = heap[i];
+        int value = lists[list][cursors[list]];
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && lists[heap[child + 1]][cursors[heap[child + 1]]]
+                    < lists[heap[child]][cursors[heap[child]]]) {
+                child++;
+            }
+            if (lists[heap[child]][cursors[heap[child]]] >= value) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = list;
+    }
+
+    // Orders spans by first, then last position.
+    private static int[][] sort(int[] firsts, int[] lasts) {
+        long[] spans = new long[firsts.length];
+        for (int i = 0; i < spans.length; i++) {
+            spans[i] = ((long) firsts[i] << 32) | (lasts[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(spans);
+        for (int i = 0; i < spans.length; i++) {
+            firsts[i] = (int) (spans[i] >>> 32);
+            lasts[i] = (int) spans[i];
+        }
+        return new int[][] { firsts, lasts };
+    }
+}
@@ -0,0 +1,791 @@
+package search;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Immutable postings store for one segment of the text.
+ * <p>
+ * Terms are kept as their ids in the {@link TermDictionary}, in increasing
+ * order, and looked up with a binary search. The positions of every term
+ * are sorted and delta encoded. They are cut in blocks of {@link #BLOCK}
+ * whose deltas are bit packed (PFor): with as many bits as most of them
+ * need, see {@link BitPacking}, the high bits of the few larger ones being
+ * kept aside as exceptions and patched in after unpacking. The positions
+ * that don't fill a block, which are all of them for most terms, are
+ * varints. A term with n occurrences costs roughly n bytes or less.
+ * <p>
+ * Terms with full blocks start with skip data: the first position of each
+ * block and where it starts. Cursors use it to skip blocks and to look up
+ * the block a position is in without decoding the ones before, and
+ * counting positions below a limit decodes a single block.
+ * <p>
+ * Everything lives in a single little endian buffer laid out as:
+ * <pre>
+ *   int termCount, int dataLength
+ *   int[termCount]     id of each term, increasing
+ *   int[termCount]     start of the postings of each term in the data
+ *   int[termCount]     number of positions of each term
+ *   byte[dataLength]   data of each term
+ * </pre>
+ * where the data of a term with b full blocks is:
+ * <pre>
+ *   int[b]             first position of each block      (if b &gt; 0)
+ *   int[b + 1]         start of each block and the tail  (if b &gt; 0)
+ *   int                last position of the blocks       (if b &gt; 0)
+ *   b times: byte bits, byte exceptions, long[2 * bits] packed low bits
+ *            of the deltas, exceptions times (byte index, varint high bits)
+ *   varint deltas of the rest, from the last position of the blocks
+ * </pre>
+ * The buffer can be on the heap or a mapped region of an index file, see
+ * {@link IndexFile}.
+ */
+final class PostingsIndex {
+
+    private static final PostingsIndex EMPTY =
+            new Builder().build(TermDictionary.empty());
+    private static final int HEADER = 8;
+    /** Positions per packed block. */
+    static final int BLOCK = 128;
+
+    private final ByteBuffer buffer;
+    private final int termCount;
+    private final int termIdsPos;
+    private final int dataStartPos;
+    private final int countsPos;
+    private final int dataPos;
+
+    private PostingsIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        termCount = buffer.getInt(0);
+        termIdsPos = HEADER;
+        dataStartPos = termIdsPos + 4 * termCount;
+        countsPos = dataStartPos + 4 * termCount;
+        dataPos = countsPos + 4 * termCount;
+    }
+
+    static PostingsIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Reads an index from a buffer produced by {@link #buffer()}, without
+     * copying it.
+     */
+    static PostingsIndex wrap(ByteBuffer buffer) {
+        return new PostingsIndex(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /** The whole index, ready to be written out. */
+    ByteBuffer buffer() {
+        return buffer.duplicate();
+    }
+
+    /** This index, with its buffer moved out of the heap if it is not yet. */
+    PostingsIndex offHeap(OffHeapMemory memory) {
+        ByteBuffer moved = memory.copy(buffer);
+        return moved == buffer ? this : new PostingsIndex(moved);
+    }
+
+    /** Number of distinct terms. */
+    int size() {
+        return termCount;
+    }
+
+    /** The dictionary id of the term at the given index. */
+    int termId(int termIndex) {
+        return buffer.getInt(termIdsPos + 4 * termIndex);
+    }
+
+    /**
+     * @param termId id of the term in the dictionary, negative for a term
+     *               that is not in it.
+     * @return index of the term, or a negative value if it does not occur.
+     */
+    int find(int termId) {
+        if (termId < 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = termId(mid);
+            if (id < termId) {
+                low = mid + 1;
+            } else if (id > termId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /** Number of occurrences of the term at the given index. */
+    int count(int termIndex) {
+        return buffer.getInt(countsPos + 4 * termIndex);
+    }
+
+
+    /**
+     * Decodes the positions of a term into dest, adding base to each of them.
+     *
+     * @return the position in dest after the last decoded value.
+     */
+    int decode(int termIndex, int base, int[] dest, int destPos) {
+        return decode(termIndex, base, Integer.MAX_VALUE, dest, destPos);
+    }
+
+    /**
+     * Same as {@link #decode(int, int, int[], int)}, leaving out positions
+     * from limit on (before adding base). Blocks starting past the limit are
+     * not decoded.
+     */
+    int decode(int termIndex, int base, int limit, int[] dest, int destPos) {
+        int start = dataPos + buffer.getInt(dataStartPos + 4 * termIndex);
+        int count = count(termIndex);
+        int blocks = count / BLOCK;
+        for (int b = 0; b < blocks; b++) {
+            if (blockFirst(start, b) >= limit) {
+                return destPos;
+            }
+            decodeBlock(start, blocks, b, base, dest, destPos);
+            if (dest[destPos + BLOCK - 1] - base >= limit) {
+                return lowerBound(dest, destPos, destPos + BLOCK, limit + base);
+            }
+            destPos += BLOCK;
+        }
+        int p = tailStart(start, blocks);
+        int position = base + tailBase(start, blocks);
+        for (int i = blocks * BLOCK; i < count; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(p++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            position += delta;
+            if (position - base >= limit) {
+                break;
+            }
+            dest[destPos++] = position;
+        }
+        return destPos;
+    }
+
+    /**
+     * Number of positions of a term below limit, decoding at most the one
+     * block the limit falls into.
+     */
+    int countBelow(int termIndex, int limit) {
+        int start = dataPos + buffer.getInt(dataStartPos + 4 * termIndex);
+        int count = count(termIndex);
+        int blocks = count / BLOCK;
+        int[] values = new int[BLOCK];
+        if (blocks > 0 && limit <= tailBase(start, blocks)) {
+            int b = lastBlockFrom(start, blocks, 0, limit - 1);
+            if (b < 0) {
+                return 0;
+            }
+            decodeBlock(start, blocks, b, 0, values, 0);
+            return b * BLOCK + lowerBound(values, 0, BLOCK, limit);
+        }
+        int n = decodeTail(start, count, blocks, values);
+        return blocks * BLOCK + lowerBound(values, 0, n, limit);
+    }
+
+    // Index of the first value from from to to that is not less than target.
+    private static int lowerBound(int[] values, int from, int to, int target) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (values[mid] < target) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    private int blockFirst(int start, int b) {
+        return buffer.getInt(start + 4 * b);
+    }
+
+    // Last position of the full blocks, that the tail is delta coded from.
+    private int tailBase(int start, int blocks) {
+        return blocks == 0 ? 0 : buffer.getInt(start + 8 * blocks + 4);
+    }
+
+    private int tailStart(int start, int blocks) {
+        return blocks == 0 ? start : start + buffer.getInt(start + 4 * (2 * blocks));
+    }
+
+    // The last block from from on whose first position is at most target,
+    // or from - 1 if there is none.
+    private int lastBlockFrom(int start, int blocks, int from, int target) {
+        int low = from;
+        int high = blocks - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockFirst(start, mid) <= target) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    // Unpacks the deltas of a block, patches in the high bits of the larger
+    // ones and adds them up from its first position.
+    private void decodeBlock(int start, int blocks, int b, int base, int[] dest,
+                             int destPos) {
+        int p = start + buffer.getInt(start + 4 * (blocks + b));
+        int bits = buffer.get(p);
+        int exceptions = buffer.get(p + 1) & 0xFF;
+        BitPacking.unpack(buffer, p + 2, bits, dest, destPos, BLOCK);
+        int highs = p + 2 + BitPacking.bytes(BLOCK, bits);
+        for (int e = 0; e < exceptions; e++) {
+            int i = destPos + buffer.get(highs++);
+            int high = 0;
+            int shift = 0;
+            byte v;
+            do {
+                v = buffer.get(highs++);
+                high |= (v & 0x7F) << shift;
+                shift += 7;
+            } while (v < 0);
+            dest[i] |= high << bits;
+        }
+        int position = base + blockFirst(start, b);
+        for (int i = destPos; i < destPos + BLOCK; i++) {
+            position += dest[i];
+            dest[i] = position;
+        }
+    }
+
+    // Decodes the varints after the full blocks, returning how many.
+    private int decodeTail(int start, int count, int blocks, int[] dest) {
+        int p = tailStart(start, blocks);
+        int position = tailBase(start, blocks);
+        int n = count - blocks * BLOCK;
+        for (int i = 0; i < n; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(p++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            position += delta;
+            dest[i] = position;
+        }
+        return n;
+    }
+
+    /**
+     * Reads the positions of a term one at a time, for callers that may stop
+     * early, adding base to each and leaving out positions from limit on
+     * (before adding base).
+     */
+    Cursor cursor(int termIndex, int base, int limit) {
+        return new Cursor(termIndex, base, limit);
+    }
+
+    /**
+     * Positions of one term, decoded a block at a time as they are read.
+     * Skipping goes over whole blocks without decoding them. Not thread safe.
+     */
+    final class Cursor {
+        private final int base;
+        private final int limit;
+        private final int start;
+        private final int count;
+        private final int blocks;
+        // Full blocks, then the tail if any.
+        private final int chunks;
+        private final int[] values = new int[BLOCK];
+        // The chunk in values, before adding base.
+        private int chunk = -1;
+        private int length;
+        private int index;
+        // The next position, before adding base, or -1 past the end.
+        private int next = -1;
+
+        private Cursor(int termIndex, int base, int limit) {
+            this.base = base;
+            this.limit = limit;
+            start = dataPos + buffer.getInt(dataStartPos + 4 * termIndex);
+            count = count(termIndex);
+            blocks = count / BLOCK;
+            chunks = count % BLOCK == 0 ? blocks : blocks + 1;
+            settle();
+        }
+
+        boolean hasNext() {
+            return next >= 0;
+        }
+
+        int next() {
+            int position = next;
+            index++;
+            settle();
+            return position + base;
+        }
+
+        /** The next position, without moving past it. */
+        int peek() {
+            return next + base;
+        }
+
+        /**
+         * Skips up to n positions, going over whole blocks without decoding
+         * them.
+         *
+         * @return how many were skipped, less than n at the end.
+         */
+        int skip(int n) {
+            int skipped = 0;
+            while (skipped < n && next >= 0) {
+                int take = Math.min(n - skipped, length - index);
+                if (values[index + take - 1] >= limit) {
+                    take = lowerBound(values, index, index + take, limit) - index;
+                }
+                index += take;
+                skipped += take;
+                if (index == length) {
+                    int c = chunk + 1;
+                    while (c < blocks && n - skipped >= BLOCK && lastOf(c) < limit) {
+                        skipped += BLOCK;
+                        c++;
+                    }
+                    jump(c);
+                } else {
+                    settle();
+                }
+            }
+            return skipped;
+        }
+
+        /**
+         * Moves on to the first position not less than target, looking up
+         * the block it is in by the first position of each block.
+         */
+        void advance(int target) {
+            int t = target - base;
+            while (next >= 0 && next < t) {
+                if (values[length - 1] >= t) {
+                    index = lowerBound(values, index, length, t);
+                    settle();
+                    return;
+                }
+                int c = chunk + 1;
+                if (c < blocks) {
+                    c = t > tailBase(start, blocks) ? blocks
+                            : Math.max(c, lastBlockFrom(start, blocks, c, t));
+                }
+                jump(c);
+            }
+        }
+
+        // At most the last position of a full block.
+        private int lastOf(int b) {
+            return b == blocks - 1 ? tailBase(start, blocks)
+                    : blockFirst(start, b + 1) - 1;
+        }
+
+        private void jump(int c) {
+            chunk = c - 1;
+            length = 0;
+            index = 0;
+            settle();
+        }
+
+        // Loads the next chunk once this one is read, and sets next.
+        private void settle() {
+            while (index == length && chunk + 1 < chunks) {
+                chunk++;
+                index = 0;
+                if (chunk < blocks) {
+                    decodeBlock(start, blocks, chunk, 0, values, 0);
+                    length = BLOCK;
+                } else {
+                    length = decodeTail(start, count, blocks, values);
+                }
+            }
+            next = index < length && values[index] < limit ? values[index] : -1;
+        }
+    }
+
+    /**
+     * Merges the postings of consecutive segments into those of a single
+     * segment, with a k-way merge over their term ids, so that every part
+     * is read once, in order. Positions of part i are shifted by bases[i],
+     * leaving out those from limits[i] on (before shifting). Bases have to
+     * increase, so the positions of a term stay sorted part after part.
+     */
+    static PostingsIndex merge(PostingsIndex[] parts, int[] bases, int[] limits) {
+        // Next term of each part, as { part, term index, term id }, lowest id
+        // first and earlier parts first for the same id.
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> a[2] != b[2]
+                ? Integer.compare(a[2], b[2]) : Integer.compare(a[0], b[0]));
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].size() > 0) {
+                heads.add(new int[] { i, 0, parts[i].termId(0) });
+            }
+        }
+        int[] ids = new int[64];
+        int[] counts = new int[64];
+        int[] starts = new int[64];
+        int n = 0;
+        Encoder encoder = new Encoder();
+        int[] positions = new int[BLOCK];
+        while (!heads.isEmpty()) {
+            int id = heads.peek()[2];
+            int count = 0;
+            while (!heads.isEmpty() && heads.peek()[2] == id) {
+                int[] head = heads.poll();
+                PostingsIndex part = parts[head[0]];
+                int needed = count + part.count(head[1]);
+                if (needed > positions.length) {
+                    positions = Arrays.copyOf(positions,
+                            Math.max(needed, positions.length * 2));
+                }
+                count = part.decode(head[1], bases[head[0]], limits[head[0]],
+                        positions, count);
+                if (++head[1] < part.size()) {
+                    head[2] = part.termId(head[1]);
+                    heads.add(head);
+                }
+            }
+            // Terms whose positions were all past their limit are left out.
+            if (count > 0) {
+                if (n == ids.length) {
+                    ids = Arrays.copyOf(ids, n * 2);
+                    counts = Arrays.copyOf(counts, n * 2);
+                    starts = Arrays.copyOf(starts, n * 2);
+                }
+                ids[n] = id;
+                starts[n] = encoder.add(positions, count);
+                counts[n] = count;
+                n++;
+            }
+        }
+        return encoder.build(ids, starts, counts, n);
+    }
+
+    /** Size of the index in bytes. */
+    long sizeInBytes() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Collects positions term by term. Positions must be added in increasing
+     * order, which is how a segment is scanned anyway.
+     * <p>
+     * Terms live in an open addressing table keyed by their hash, so adding
+     * an occurrence of a term that is already known allocates nothing.
+     */
+    static final class Builder {
+        private TermBuffer[] table = new TermBuffer[64];
+        private int size;
+
+        void add(String term, int position) {
+            add(term.toCharArray(), term.length(), term.hashCode(), position);
+        }
+
+        /**
+         * @param term   buffer holding the term, copied only for new terms.
+         * @param length length of the term in the buffer.
+         * @param hash   the String.hashCode() of the term.
+         */
+        void add(char[] term, int length, int hash, int position) {
+            int mask = table.length - 1;
+            int slot = mix(hash) & mask;
+            TermBuffer buffer;
+            while ((buffer = table[slot]) != null) {
+                if (buffer.hash == hash && buffer.matches(term, length)) {
+                    buffer.add(position);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            buffer = new TermBuffer(new String(term, 0, length), hash);
+            buffer.add(position);
+            table[slot] = buffer;
+            if (++size * 2 > table.length) {
+                rehash();
+            }
+        }
+
+        /** The distinct terms added, to be put in the dictionary. */
+        List<String> terms() {
+            List<String> terms = new ArrayList<>(size);
+            for (TermBuffer buffer : table) {
+                if (buffer != null) {
+                    terms.add(buffer.term);
+                }
+            }
+            return terms;
+        }
+
+        /**
+         * @param dictionary holds every term added, see {@link #terms()}.
+         */
+        PostingsIndex build(TermDictionary dictionary) {
+            TermBuffer[] buffers = new TermBuffer[size];
+            int length = 0;
+            int n = 0;
+            for (TermBuffer buffer : table) {
+                if (buffer != null) {
+                    buffer.id = dictionary.find(buffer.term);
+                    if (buffer.id < 0) {
+                        throw new IllegalArgumentException("Term missing from"
+                                + " the dictionary: " + buffer.term);
+                    }
+                    buffers[n++] = buffer;
+                    length += buffer.length;
+                }
+            }
+            Arrays.sort(buffers, (a, b) -> Integer.compare(a.id, b.id));
+            int[] ids = new int[size];
+            int[] starts = new int[size];
+            int[] counts = new int[size];
+            Encoder encoder = new Encoder(length);
+            int[] positions = new int[BLOCK];
+            for (int i = 0; i < size; i++) {
+                TermBuffer buffer = buffers[i];
+                if (buffer.count > positions.length) {
+                    positions = new int[Math.max(buffer.count, 2 * positions.length)];
+                }
+                buffer.decode(positions);
+                ids[i] = buffer.id;
+                starts[i] = encoder.add(positions, buffer.count);
+                counts[i] = buffer.count;
+            }
+            return encoder.build(ids, starts, counts, size);
+        }
+
+        private void rehash() {
+            TermBuffer[] old = table;
+            table = new TermBuffer[old.length * 2];
+            int mask = table.length - 1;
+            for (TermBuffer buffer : old) {
+                if (buffer != null) {
+                    int slot = mix(buffer.hash) & mask;
+                    while (table[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table[slot] = buffer;
+                }
+            }
+        }
+
+        // Spreads the high bits of String hashes, which cluster for short terms.
+        private static int mix(int hash) {
+            int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Writes the positions of terms one after the other. Every full block of
+     * BLOCK positions has its deltas packed with as many bits as most of them
+     * need, the rest are varints.
+     */
+    private static final class Encoder {
+        private byte[] data;
+        private int length;
+        private final int[] deltas = new int[BLOCK];
+
+        Encoder() {
+            this(1024);
+        }
+
+        Encoder(int capacity) {
+            data = new byte[Math.max(capacity, 64)];
+        }
+
+        /** Appends sorted positions, returning where they start. */
+        int add(int[] positions, int count) {
+            int start = length;
+            int blocks = count / BLOCK;
+            int last = 0;
+            if (blocks > 0) {
+                // First position of each block, start of each block and of
+                // the tail, and the last position of the blocks.
+                ensure(8 * blocks + 8);
+                length += 8 * blocks + 8;
+                for (int b = 0; b < blocks; b++) {
+                    int first = positions[b * BLOCK];
+                    putInt(start + 4 * b, first);
+                    putInt(start + 4 * (blocks + b), length - start);
+                    deltas[0] = 0;
+                    for (int i = 1; i < BLOCK; i++) {
+                        deltas[i] = positions[b * BLOCK + i] - positions[b * BLOCK + i - 1];
+                    }
+                    int bits = packedBits(deltas);
+                    int exceptions = 0;
+                    for (int delta : deltas) {
+                        if (delta >>> bits != 0) {
+                            exceptions++;
+                        }
+                    }
+                    ensure(2 + BitPacking.bytes(BLOCK, bits) + 6 * exceptions);
+                    data[length++] = (byte) bits;
+                    data[length++] = (byte) exceptions;
+                    // The low bits of every delta are packed, the high bits of
+                    // the few larger ones follow with their index.
+                    int high = length + BitPacking.bytes(BLOCK, bits);
+                    for (int i = 0; i < BLOCK; i++) {
+                        if (deltas[i] >>> bits != 0) {
+                            data[high++] = (byte) i;
+                            high = putVarint(high, deltas[i] >>> bits);
+                            deltas[i] &= (1 << bits) - 1;
+                        }
+                    }
+                    length += BitPacking.pack(deltas, 0, BLOCK, bits, data, length);
+                    length = high;
+                }
+                last = positions[blocks * BLOCK - 1];
+                putInt(start + 8 * blocks, length - start);
+                putInt(start + 8 * blocks + 4, last);
+            }
+            ensure(5 * (count - blocks * BLOCK));
+            for (int i = blocks * BLOCK; i < count; i++) {
+                length = putVarint(length, positions[i] - last);
+                last = positions[i];
+            }
+            return start;
+        }
+
+        // The bits to pack deltas with, so that the packed deltas and the
+        // high bits of those that don't fit take the fewest bytes.
+        private static int packedBits(int[] deltas) {
+            int[] counts = new int[33];
+            for (int delta : deltas) {
+                counts[BitPacking.bits(delta)]++;
+            }
+            int max = 32;
+            while (max > 0 && counts[max] == 0) {
+                max--;
+            }
+            int best = max;
+            int bestBytes = BitPacking.bytes(BLOCK, max);
+            int exceptions = 0;
+            for (int bits = max - 1; bits >= 0 && exceptions < BLOCK / 4; bits--) {
+                exceptions += counts[bits + 1];
+                int bytes = BitPacking.bytes(BLOCK, bits)
+                        + exceptions * (1 + (max - bits + 6) / 7);
+                if (bytes < bestBytes) {
+                    best = bits;
+                    bestBytes = bytes;
+                }
+            }
+            return best;
+        }
+
+        private int putVarint(int p, int value) {
+            while ((value & ~0x7F) != 0) {
+                data[p++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[p++] = (byte) value;
+            return p;
+        }
+
+        PostingsIndex build(int[] ids, int[] starts, int[] counts, int n) {
+            ByteBuffer out = ByteBuffer.allocate(HEADER + 12 * n + length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(n).putInt(length);
+            out.asIntBuffer().put(ids, 0, n).put(starts, 0, n).put(counts, 0, n);
+            out.position(HEADER + 12 * n);
+            out.put(data, 0, length);
+            out.flip();
+            return new PostingsIndex(out);
+        }
+
+        private void ensure(int more) {
+            if (length + more > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + more));
+            }
+        }
+
+        private void putInt(int p, int value) {
+            data[p] = (byte) value;
+            data[p + 1] = (byte) (value >>> 8);
+            data[p + 2] = (byte) (value >>> 16);
+            data[p + 3] = (byte) (value >>> 24);
+        }
+    }
+
+    // Growable varint buffer for the positions of a single term.
+    private static final class TermBuffer {
+        private final String term;
+        private final int hash;
+        // Id in the dictionary, once the postings are built.
+        private int id;
+        private byte[] bytes = new byte[4];
+        private int length;
+        private int count;
+        private int last;
+
+        TermBuffer(String term, int hash) {
+            this.term = term;
+            this.hash = hash;
+        }
+
+        boolean matches(char[] chars, int charsLength) {
+            if (term.length() != charsLength) {
+                return false;
+            }
+            for (int i = 0; i < charsLength; i++) {
+                if (term.charAt(i) != chars[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(int position) {
+            int delta = position - last;
+            last = position;
+            count++;
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2,
+                        length + 5));
+            }
+            while ((delta & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+        }
+
+        // Decodes the positions added into dest.
+        void decode(int[] dest) {
+            int p = 0;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[p++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                position += delta;
+                dest[i] = position;
+            }
+        }
+    }
+}
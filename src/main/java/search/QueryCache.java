@@ -0,0 +1,200 @@
+package search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the results of recent searches of a {@link TextSearcher}, so that
+ * repeated queries skip the postings and the text. Results are kept for
+ * queries with context, keyed by normalized word and number of context
+ * words, and are only used for the text they were computed from: once text
+ * is added or the searcher is given a new one, they no longer count.
+ * <p>
+ * The cache is split into stripes, each a least recently used map under its
+ * own lock, so that concurrent searches seldom wait for each other. Each
+ * stripe evicts on its own, so limits hold for the whole cache but the
+ * least recently used entry overall is not always the one to go.
+ * <p>
+ * A cache belongs to a single searcher.
+ */
+public final class QueryCache {
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries Most results to keep.
+     * @param maxBytes   Most bytes of results to keep, estimated from the
+     *                   length of their strings.
+     */
+    public QueryCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Limits must be positive: "
+                    + maxEntries + ", " + maxBytes);
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            // Rounded up, so small limits still allow an entry per stripe.
+            stripes[i] = new Stripe((maxEntries + STRIPES - 1) / STRIPES,
+                    (maxBytes + STRIPES - 1) / STRIPES);
+        }
+    }
+
+    /** Number of searches answered from the cache. */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** Number of searches that were not in the cache. */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** Number of results dropped to stay within the limits. */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /** Number of results kept. */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /** Estimated size of the results kept, in bytes. */
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * The cached result of a query on the given text, or null. The array is
+     * the cached one, callers copy it before handing it out.
+     */
+    String[] get(String term, int contextWords, TextSource text) {
+        Key key = new Key(term, contextWords);
+        Stripe stripe = stripeOf(key);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.get(key);
+            if (entry != null && entry.text != text) {
+                // Computed from text that has changed since.
+                stripe.remove(key);
+                stripe.bytes -= entry.bytes;
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.contexts;
+    }
+
+    /** Keeps the result of a query on the given text, which must not change. */
+    void put(String term, int contextWords, TextSource text, String[] contexts) {
+        Key key = new Key(term, contextWords);
+        Entry entry = new Entry(text, contexts);
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            if (entry.bytes > stripe.maxBytes) {
+                return;
+            }
+            Entry old = stripe.put(key, entry);
+            stripe.bytes += entry.bytes - (old == null ? 0 : old.bytes);
+            Iterator<Entry> eldest = stripe.values().iterator();
+            while (stripe.size() > stripe.maxEntries
+                    || stripe.bytes > stripe.maxBytes) {
+                stripe.bytes -= eldest.next().bytes;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /** Drops every result, when the text changes. */
+    void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+                stripe.bytes = 0;
+            }
+        }
+    }
+
+    private Stripe stripeOf(Key key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    // Entries in access order, least recently used first.
+    private static final class Stripe extends LinkedHashMap<Key, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+        private final long maxBytes;
+        private long bytes;
+
+        Stripe(int maxEntries, long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    private static final class Key {
+        private final String term;
+        private final int contextWords;
+
+        Key(String term, int contextWords) {
+            this.term = term;
+            this.contextWords = contextWords;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return contextWords == other.contextWords && term.equals(other.term);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * term.hashCode() + contextWords;
+        }
+    }
+
+    private static final class Entry {
+        private final TextSource text;
+        private final String[] contexts;
+        private final long bytes;
+
+        Entry(TextSource text, String[] contexts) {
+            this.text = text;
+            this.contexts = contexts;
+            // Array header and references, then a String and its chars each.
+            long bytes = 16 + 4L * contexts.length;
+            for (String context : contexts) {
+                bytes += 40 + 2L * context.length();
+            }
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package search;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Ranks the passages of a text for a query of several words with BM25, and
+ * finds the best k without scoring every passage that has a query word.
+ * <p>
+ * Passages are consecutive runs of a fixed number of words, so a passage is
+ * found from a position by a division. The number of passages a term occurs
+ * in is taken to be its number of occurrences, at most the number of
+ * passages, which the postings know without decoding them.
+ * <p>
+ * Passages are visited in text order with a cursor over the positions of
+ * every term (MaxScore). Each term has an upper bound on what it can add to
+ * a score. Once the best k passages so far all score more than the bounds
+ * of the least valuable terms added up, those terms alone can't make a
+ * passage enter the top k. Only passages with one of the other terms are
+ * then visited, and the cursors of the least valuable terms jump to them
+ * using their skip data, or not at all if the score can't get high enough.
+ * The more common a term, the lower its bound, so common words end up only
+ * being looked up where rarer ones are, and the work depends on the hits
+ * of the rarer words rather than on the size of the text.
+ */
+final class RankedSearch {
+
+    /** Words per passage, by default. */
+    static final int PASSAGE_WORDS = 50;
+    // BM25 term frequency saturation and length normalization.
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private RankedSearch() {
+    }
+
+    /**
+     * The best k passages for the terms, best first, as spans of the first
+     * and of the last token of each.
+     *
+     * @param terms        distinct normalized terms.
+     * @param passageWords words per passage.
+     */
+    static int[][] top(IndexSnapshot snapshot, String[] terms, int k,
+                       int passageWords) {
+        int tokenCount = snapshot.tokenCount();
+        if (k <= 0 || tokenCount == 0) {
+            return new int[][] { new int[0], new int[0] };
+        }
+        // A passage longer than the text is the whole text, and positions
+        // past passages are computed in long: neither overflows.
+        passageWords = Math.min(passageWords, tokenCount);
+        int passages = (int) (((long) tokenCount + passageWords - 1)
+                / passageWords);
+        double averageLength = (double) tokenCount / passages;
+        Term[] query = new Term[terms.length];
+        int n = 0;
+        for (String term : terms) {
+            int count = snapshot.count(term);
+            if (count > 0) {
+                query[n++] = new Term(snapshot.iterator(term), count, passages,
+                        passageWords, averageLength);
+            }
+        }
+        query = Arrays.copyOf(query, n);
+        // Least valuable first, and the bound of each with those before it.
+        Arrays.sort(query, Comparator.comparingDouble(term -> term.bound));
+        double[] bounds = new double[n];
+        for (int i = 0; i < n; i++) {
+            bounds[i] = query[i].bound + (i == 0 ? 0 : bounds[i - 1]);
+        }
+
+        // Lowest score on top, and the later passage on a tie so that
+        // earlier ones are kept.
+        PriorityQueue<double[]> best = new PriorityQueue<>((a, b) -> a[0] != b[0]
+                ? Double.compare(a[0], b[0]) : Double.compare(b[1], a[1]));
+        double threshold = -1;
+        // Terms from essential on may make a passage enter the top k alone.
+        int essential = 0;
+        while (essential < n) {
+            int passage = Integer.MAX_VALUE;
+            for (int i = essential; i < n; i++) {
+                if (query[i].positions.hasNext()) {
+                    passage = Math.min(passage,
+                            query[i].positions.peek() / passageWords);
+                }
+            }
+            if (passage == Integer.MAX_VALUE) {
+                break;
+            }
+            int start = passage * passageWords;
+            int end = (int) Math.min((long) start + passageWords, tokenCount);
+            double score = 0;
+            for (int i = essential; i < n; i++) {
+                score += query[i].score(query[i].frequency(end), end - start);
+            }
+            for (int i = essential - 1; i >= 0 && score + bounds[i] > threshold; i--) {
+                query[i].positions.advance(start);
+                score += query[i].score(query[i].frequency(end), end - start);
+            }
+            if (best.size() < k || score > threshold) {
+                best.add(new double[] { score, passage });
+                if (best.size() > k) {
+                    best.poll();
+                }
+                if (best.size() == k) {
+                    threshold = best.peek()[0];
+                    while (essential < n && bounds[essential] <= threshold) {
+                        essential++;
+                    }
+                }
+            }
+        }
+
+        int[] firsts = new int[best.size()];
+        int[] lasts = new int[best.size()];
+        for (int i = firsts.length - 1; i >= 0; i--) {
+            firsts[i] = (int) best.poll()[1] * passageWords;
+            lasts[i] = (int) Math.min((long) firsts[i] + passageWords,
+                    tokenCount) - 1;
+        }
+        return new int[][] { firsts, lasts };
+    }
+
+    // A term of the query, with its cursor and upper bound.
+    private static final class Term {
+        private final IndexSnapshot.TermPositions positions;
+        private final double idf;
+        private final double averageLength;
+        // Most the term can add to the score of a passage.
+        private final double bound;
+
+        Term(IndexSnapshot.TermPositions positions, int count, int passages,
+             int passageWords, double averageLength) {
+            this.positions = positions;
+            this.averageLength = averageLength;
+            int documents = Math.min(count, passages);
+            idf = Math.log(1 + (passages - documents + 0.5) / (documents + 0.5));
+            // Scores grow with the frequency and shrink with the length.
+            bound = score(Math.min(count, passageWords), 1);
+        }
+
+        // Occurrences before end, moving the cursor past them. The cursor
+        // must be at the start of the passage or after it.
+        int frequency(int end) {
+            int frequency = 0;
+            while (positions.hasNext() && positions.peek() < end) {
+                positions.nextInt();
+                frequency++;
+            }
+            return frequency;
+        }
+
+        double score(int frequency, int length) {
+            if (frequency == 0) {
+                return 0;
+            }
+            return idf * frequency * (K1 + 1) / (frequency
+                    + K1 * (1 - B + B * length / averageLength));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package search;
+
+/**
+ * Gets told how long indexing and searches take, for monitoring. Every
+ * method does nothing unless overridden, and {@link #NONE}, the default of
+ * a {@link TextSearcher}, overrides none of them. Methods are called on the
+ * threads doing the work, often several at once, so they have to be cheap
+ * and thread safe. {@link SearchStats} keeps the numbers and shows them
+ * over JMX.
+ */
+public interface SearchMetrics {
+
+    /** Reports nothing. */
+    SearchMetrics NONE = new SearchMetrics() {
+    };
+
+    /** The steps of indexing text. */
+    enum Phase {
+        /** Mapping the file into memory. */
+        READ,
+        /** Finding where to split the text into segments. */
+        PARTITION,
+        /** Scanning the words of the segments, in parallel. */
+        TOKENIZE,
+        /** Giving terms their ids and building the postings of segments. */
+        MERGE,
+        /** Indexing a run of small segments again as one, in the background. */
+        SEGMENT_MERGE
+    }
+
+    /** The kinds of searches. */
+    enum Query {
+        WORD, COUNT, PAGE, ALL, PHRASE, NEAR, PATTERN, FUZZY, RANKED
+    }
+
+    /** A step of indexing took the given time. */
+    default void phase(Phase phase, long nanos) {
+    }
+
+    /**
+     * Text was indexed in segments of the given lengths, in chars, each
+     * scanned by a task of its own.
+     */
+    default void segments(long[] lengths) {
+    }
+
+    /** A search took the given time and found the given number of hits. */
+    default void search(Query query, long nanos, int hits) {
+    }
+
+    /**
+     * A new index was published, taking the given number of bytes for the
+     * given number of chars of text.
+     */
+    default void index(long indexBytes, long textLength) {
+    }
+}
@@ -0,0 +1,476 @@
+package search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves searches over HTTP, with the JDK's built in server, so a
+ * {@link TextSearcher} can be queried from other processes without a
+ * servlet container. Answers are JSON:
+ * <pre>
+ *   GET /search?q=word&amp;context=3[&amp;offset=0&amp;limit=20]  ["hit", ...]
+ *   GET /count?q=word                                   42
+ *   GET /phrase?q=natural+selection&amp;context=3           ["hit", ...]
+ *   GET /ranked?q=natural+selection&amp;k=10                ["passage", ...]
+ * </pre>
+ * Requests are handled without blocking a thread while they wait:
+ * <ul>
+ * <li>Identical requests coming in together are answered by a single
+ * search. The first one waits a short window for others to join, and any
+ * arriving until its answer is ready get the same answer.</li>
+ * <li>At most a fixed number of requests are in flight. Requests beyond
+ * that are turned away at once with 503, rather than queued without
+ * bound, so clients can back off or go to another server. As many
+ * searches at most are waiting or running, counting those whose requests
+ * timed out.</li>
+ * <li>A request not answered within its timeout gets 504. The search goes
+ * on and still answers the requests that joined it later.</li>
+ * </ul>
+ * Searches run on a pool of their own with a bounded queue, and answers
+ * are written on another one, so that a slow client holds up neither
+ * searches nor the timeouts of other requests.
+ */
+public final class SearchServer implements Closeable {
+
+    private final TextSearcher searcher;
+    private final HttpServer server;
+    private final ThreadPoolExecutor searches;
+    private final ScheduledExecutorService timer;
+    // Writes the answers of searches and timeouts.
+    private final ThreadPoolExecutor writers;
+    private final Semaphore inFlight;
+    // Searches waiting or running. A search keeps its place when the
+    // requests for it time out, until it ends.
+    private final Semaphore searchPlaces;
+    private final long timeoutMillis;
+    private final long coalesceMillis;
+    // Searches not answered yet, by request, for requests to join.
+    private final Map<String, CompletableFuture<Answer>> pending =
+            new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    private SearchServer(Builder builder) throws IOException {
+        this.searcher = builder.searcher;
+        this.timeoutMillis = builder.timeoutMillis;
+        this.coalesceMillis = builder.coalesceMillis;
+        inFlight = new Semaphore(builder.maxInFlight);
+        searchPlaces = new Semaphore(builder.maxInFlight);
+        searches = new ThreadPoolExecutor(builder.threads, builder.threads,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(builder.maxInFlight), daemon("search"));
+        timer = Executors.newSingleThreadScheduledExecutor(daemon("search-timer"));
+        // A thread per answer being written, so a client that does not read
+        // its answer only holds up its own thread.
+        writers = new ThreadPoolExecutor(0, builder.maxInFlight,
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                daemon("search-writer"));
+        server = HttpServer.create(builder.address, 0);
+        // Handlers only parse requests and hand them on, so the dispatcher
+        // thread runs them.
+        server.createContext("/", this::handle);
+    }
+
+    /** Configures a server for the searcher. */
+    public static Builder builder(TextSearcher searcher) {
+        return new Builder(searcher);
+    }
+
+    /**
+     * Configures a server. By default it listens on the loopback interface
+     * on any free port, and searches on as many threads as there are cores.
+     */
+    public static final class Builder {
+        private final TextSearcher searcher;
+        private InetSocketAddress address =
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int maxInFlight = 1024;
+        private long timeoutMillis = 1000;
+        private long coalesceMillis = 1;
+
+        private Builder(TextSearcher searcher) {
+            this.searcher = searcher;
+        }
+
+        public Builder address(InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /** Threads running searches. */
+        public Builder threads(int threads) {
+            this.threads = positive(threads, "threads");
+            return this;
+        }
+
+        /** Requests in flight beyond which new ones get 503. */
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = positive(maxInFlight, "requests in flight");
+            return this;
+        }
+
+        /** Time after which a request not answered yet gets 504. */
+        public Builder timeout(long timeout, TimeUnit unit) {
+            this.timeoutMillis = positive(unit.toMillis(timeout), "timeout");
+            return this;
+        }
+
+        /**
+         * Time the first of identical requests waits for others to join it,
+         * 0 to only share searches already running.
+         */
+        public Builder coalesceWindow(long window, TimeUnit unit) {
+            if (window < 0) {
+                throw new IllegalArgumentException("Negative window: " + window);
+            }
+            this.coalesceMillis = unit.toMillis(window);
+            return this;
+        }
+
+        /** Starts a server listening on the address. */
+        public SearchServer start() throws IOException {
+            SearchServer server = new SearchServer(this);
+            server.server.start();
+            return server;
+        }
+
+        private static long positive(long value, String what) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("Need some " + what + ": "
+                        + value);
+            }
+            return value;
+        }
+
+        private static int positive(int value, String what) {
+            return (int) positive((long) value, what);
+        }
+    }
+
+    /** Where the server listens, with the actual port. */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /** Requests received. */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /** Searches run, fewer than the requests answered if some were shared. */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /** Requests turned away with 503. */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /** Requests answered with 504. */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    /** Stops listening, and drops the searches not run yet. */
+    @Override
+    public void close() {
+        server.stop(0);
+        searches.shutdownNow();
+        timer.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            respond(exchange, new Answer(405, "\"GET only\""));
+            return;
+        }
+        Map<String, String> parameters;
+        try {
+            parameters = parameters(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException ex) {
+            respond(exchange, new Answer(400, json(ex.getMessage())));
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        if (!inFlight.tryAcquire()) {
+            rejected.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, new Answer(503, "\"Too many requests\""));
+            return;
+        }
+        AtomicBoolean answered = new AtomicBoolean();
+        // Parameters sorted, so that the same request in any order is shared.
+        String key = path + new TreeMap<>(parameters);
+        try {
+            CompletableFuture<Answer> created = new CompletableFuture<>();
+            CompletableFuture<Answer> joined = pending.putIfAbsent(key, created);
+            CompletableFuture<Answer> answer = joined != null ? joined : created;
+            if (joined == null) {
+                lookup(key, path, parameters, created);
+            }
+            // Answered once, by the search or by the timeout, which frees the
+            // place of the request first so that a client sending another
+            // one right after the answer finds it free.
+            answer.whenComplete((result, failure) -> {
+                if (answered.compareAndSet(false, true)) {
+                    inFlight.release();
+                    write(exchange, failure == null ? result
+                            : internalError(failure));
+                }
+            });
+            timer.schedule(() -> {
+                if (answered.compareAndSet(false, true)) {
+                    timedOut.increment();
+                    inFlight.release();
+                    write(exchange, new Answer(504, "\"Timed out\""));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException | Error ex) {
+            // Closing, or worse: the request is not waited for any more.
+            if (answered.compareAndSet(false, true)) {
+                inFlight.release();
+                respond(exchange, new Answer(503, "\"Shutting down\""));
+            }
+            if (!(ex instanceof RejectedExecutionException)) {
+                throw ex;
+            }
+        }
+    }
+
+    // Runs the search for a request after the window, for it and for those
+    // joining it until it is answered, unless there are too many searches
+    // waiting or running already.
+    private void lookup(String key, String path, Map<String, String> parameters,
+                        CompletableFuture<Answer> answer) {
+        if (!searchPlaces.tryAcquire()) {
+            rejected.increment();
+            pending.remove(key, answer);
+            answer.complete(new Answer(503, "\"Too many searches\""));
+            return;
+        }
+        Runnable search = () -> {
+            lookups.increment();
+            Answer result;
+            try {
+                result = search(path, parameters);
+            } catch (IllegalArgumentException ex) {
+                result = new Answer(400, json(ex.getMessage()));
+            } catch (RuntimeException ex) {
+                result = internalError(ex);
+            } finally {
+                searchPlaces.release();
+            }
+            pending.remove(key, answer);
+            answer.complete(result);
+        };
+        Runnable submit = () -> {
+            try {
+                searches.execute(search);
+            } catch (RejectedExecutionException ex) {
+                // Shut down: the queue has room for every search otherwise.
+                searchPlaces.release();
+                rejected.increment();
+                pending.remove(key, answer);
+                answer.complete(new Answer(503, "\"Too many searches\""));
+            }
+        };
+        if (coalesceMillis == 0) {
+            submit.run();
+        } else {
+            try {
+                timer.schedule(submit, coalesceMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                submit.run();
+            }
+        }
+    }
+
+    // Logged here: what went wrong is not for clients to see.
+    private static Answer internalError(Throwable failure) {
+        failure.printStackTrace();
+        return new Answer(500, "\"Internal error\"");
+    }
+
+    private Answer search(String path, Map<String, String> parameters) {
+        String query = required(parameters, "q");
+        switch (path) {
+            case "/search":
+                int context = number(parameters, "context", 0);
+                String[] hits = parameters.containsKey("limit")
+                        ? searcher.search(query, context,
+                                number(parameters, "offset", 0),
+                                number(parameters, "limit", 0))
+                        : searcher.search(query, context);
+                return new Answer(200, json(hits));
+            case "/count":
+                return new Answer(200, Integer.toString(searcher.count(query)));
+            case "/phrase":
+                return new Answer(200, json(searcher.searchPhrase(query,
+                        number(parameters, "context", 0))));
+            case "/ranked":
+                return new Answer(200, json(searcher.searchRanked(query,
+                        number(parameters, "k", 10))));
+            default:
+                return new Answer(404, json("No such search: " + path));
+        }
+    }
+
+    // Responds on a writer thread, as searches and the timer only complete
+    // answers.
+    private void write(HttpExchange exchange, Answer answer) {
+        try {
+            writers.execute(() -> respond(exchange, answer));
+        } catch (RejectedExecutionException ex) {
+            // Closed, or as many answers stuck as requests can be in flight.
+            exchange.close();
+        }
+    }
+
+    private void respond(HttpExchange exchange, Answer answer) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type",
+                    "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(answer.status, answer.body.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(answer.body);
+            }
+        } catch (IOException ex) {
+            // The client went away; nothing left to tell it.
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Map<String, String> parameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            try {
+                parameters.put(URLDecoder.decode(name, "UTF-8"),
+                        URLDecoder.decode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static int number(Map<String, String> parameters, String name,
+                              int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Not a number: " + name + "="
+                    + value);
+        }
+    }
+
+    static String json(String[] strings) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < strings.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(json(strings[i]));
+        }
+        return json.append(']').toString();
+    }
+
+    static String json(String string) {
+        StringBuilder json = new StringBuilder(string.length() + 2).append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Status and body of a response, shared by the requests of a search.
+    private static final class Answer {
+        private final int status;
+        private final byte[] body;
+
+        Answer(int status, String body) {
+            this.status = status;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package search;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps the numbers a {@link TextSearcher} reports as {@link SearchMetrics},
+ * and shows them as an MBean once registered, so they can be watched with
+ * any JMX console. Search times and hit counts are kept in histograms of
+ * powers of two, so recording one is a couple of atomic increments. A
+ * single instance can be given to several searchers to add up their times
+ * and searches, but the segment and index figures are those of the last
+ * report from any of them, not totals.
+ */
+public final class SearchStats implements SearchMetrics, SearchStatsMBean {
+
+    private static final int BUCKETS = 32;
+
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray hitCounts = new AtomicLongArray(BUCKETS);
+    // The last reports, replaced as a whole, so each is read once to take
+    // numbers from the same report.
+    private volatile long[] segmentLengths = new long[0];
+    private volatile long[] index = new long[2];
+    private ObjectName name;
+
+    public SearchStats() {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers these stats with the platform MBean server, as
+     * search:type=TextSearcher,name=the given name.
+     *
+     * @return the name registered under.
+     * @throws IllegalStateException if the name is taken or not valid.
+     */
+    public synchronized ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("search:type=TextSearcher,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.name = objectName;
+            return objectName;
+        } catch (JMException ex) {
+            throw new IllegalStateException("Cannot register " + name, ex);
+        }
+    }
+
+    /** Takes these stats off the MBean server, if they were registered. */
+    public synchronized void unregister() {
+        if (name == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            throw new IllegalStateException("Cannot unregister " + name, ex);
+        } finally {
+            name = null;
+        }
+    }
+
+    @Override
+    public void phase(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    @Override
+    public void segments(long[] lengths) {
+        segmentLengths = lengths.clone();
+    }
+
+    @Override
+    public void search(Query query, long nanos, int hits) {
+        searches.increment();
+        this.hits.add(hits);
+        searchNanos.add(nanos);
+        latencies.incrementAndGet(bucket(nanos / 1000));
+        hitCounts.incrementAndGet(bucket(hits));
+    }
+
+    @Override
+    public void index(long indexBytes, long textLength) {
+        index = new long[] { indexBytes, textLength };
+    }
+
+    // Bucket i holds values under 2^i, from 2^(i - 1) on.
+    private static int bucket(long value) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    private long millis(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum() / 1000000;
+    }
+
+    @Override
+    public long getReadMillis() {
+        return millis(Phase.READ);
+    }
+
+    @Override
+    public long getPartitionMillis() {
+        return millis(Phase.PARTITION);
+    }
+
+    @Override
+    public long getTokenizeMillis() {
+        return millis(Phase.TOKENIZE);
+    }
+
+    @Override
+    public long getMergeMillis() {
+        return millis(Phase.MERGE);
+    }
+
+    @Override
+    public long getSegmentMergeMillis() {
+        return millis(Phase.SEGMENT_MERGE);
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return segmentLengths.length;
+    }
+
+    @Override
+    public long getMinSegmentLength() {
+        long[] lengths = segmentLengths;
+        long min = lengths.length == 0 ? 0 : Long.MAX_VALUE;
+        for (long length : lengths) {
+            min = Math.min(min, length);
+        }
+        return min;
+    }
+
+    @Override
+    public long getMaxSegmentLength() {
+        long max = 0;
+        for (long length : segmentLengths) {
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+    @Override
+    public double getSegmentSkew() {
+        long[] lengths = segmentLengths;
+        long total = 0;
+        long max = 0;
+        for (long length : lengths) {
+            total += length;
+            max = Math.max(max, length);
+        }
+        return total == 0 ? 1 : (double) max * lengths.length / total;
+    }
+
+    @Override
+    public long getSearchCount() {
+        return searches.sum();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public double getMeanHitsPerSearch() {
+        long count = searches.sum();
+        return count == 0 ? 0 : (double) hits.sum() / count;
+    }
+
+    @Override
+    public double getMeanSearchMicros() {
+        long count = searches.sum();
+        return count == 0 ? 0 : searchNanos.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public long getMedianSearchMicros() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public long getSearchMicros99() {
+        return percentile(0.99);
+    }
+
+    // Upper bound of the bucket the given fraction of searches falls in.
+    private long percentile(double fraction) {
+        long[] histogram = getSearchLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen > 0 && seen >= fraction * total) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long[] getSearchLatencyHistogram() {
+        return toArray(latencies);
+    }
+
+    @Override
+    public long[] getHitsHistogram() {
+        return toArray(hitCounts);
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public long getIndexBytes() {
+        long[] index = this.index;
+        return index[0];
+    }
+
+    @Override
+    public long getTextLength() {
+        long[] index = this.index;
+        return index[1];
+    }
+
+    @Override
+    public double getIndexBytesPerCorpusByte() {
+        long[] index = this.index;
+        return index[1] == 0 ? 0 : (double) index[0] / index[1];
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder nanos : phaseNanos) {
+            nanos.reset();
+        }
+        searches.reset();
+        hits.reset();
+        searchNanos.reset();
+        for (int i = 0; i < BUCKETS; i++) {
+            latencies.set(i, 0);
+            hitCounts.set(i, 0);
+        }
+    }
+}
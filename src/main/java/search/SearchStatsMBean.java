@@ -0,0 +1,70 @@
+package search;
+
+/**
+ * What {@link SearchStats} shows over JMX. Times are totals since the last
+ * reset unless said otherwise, segment and index figures are those of the
+ * last text indexed, by any searcher reporting to the same stats.
+ */
+public interface SearchStatsMBean {
+
+    long getReadMillis();
+
+    long getPartitionMillis();
+
+    long getTokenizeMillis();
+
+    long getMergeMillis();
+
+    long getSegmentMergeMillis();
+
+    /** Number of segments the last text indexed was split into. */
+    int getSegmentCount();
+
+    long getMinSegmentLength();
+
+    long getMaxSegmentLength();
+
+    /**
+     * Length of the longest segment over the mean length, 1 when segments
+     * are even. The longest segment bounds how long indexing takes.
+     */
+    double getSegmentSkew();
+
+    long getSearchCount();
+
+    long getHitCount();
+
+    double getMeanHitsPerSearch();
+
+    double getMeanSearchMicros();
+
+    /** Upper bound of the median search time, in microseconds. */
+    long getMedianSearchMicros();
+
+    /** Upper bound of the 99th percentile of search times, in microseconds. */
+    long getSearchMicros99();
+
+    /**
+     * Number of searches by time taken: the count at i is for searches
+     * under 2^i microseconds that did not fit the bucket before.
+     */
+    long[] getSearchLatencyHistogram();
+
+    /**
+     * Number of searches by hits found: the count at i is for searches with
+     * under 2^i hits that did not fit the bucket before.
+     */
+    long[] getHitsHistogram();
+
+    /** Bytes taken by the last index published. */
+    long getIndexBytes();
+
+    /** Chars of text searched by the last index published. */
+    long getTextLength();
+
+    /** Index bytes over chars of text, both of the last index published. */
+    double getIndexBytesPerCorpusByte();
+
+    /** Sets every count and time back to zero. */
+    void reset();
+}
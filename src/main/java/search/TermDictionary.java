@@ -0,0 +1,515 @@
+package search;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Every distinct term of the text, each with an int id. Segments key their
+ * postings by id, so the chars of a term are stored once however many
+ * segments it occurs in, and a query looks its terms up once rather than
+ * once per segment.
+ * <p>
+ * Ids are given in the order terms are added and never change, so segments
+ * built against a dictionary stay valid with the larger dictionaries made
+ * from it as text is appended. A dictionary is immutable. Adding terms makes
+ * a new one that shares most of the old one: terms live in layers, each a
+ * hash table over a char arena, and a new layer takes in the layers below it
+ * that are not larger than it. That keeps the number of layers logarithmic,
+ * and each term is copied a logarithmic number of times.
+ * <p>
+ * Each layer also keeps its terms in sorted order, for prefix, wildcard and
+ * fuzzy lookups, which return the ids of every matching term.
+ */
+final class TermDictionary {
+
+    private static final TermDictionary EMPTY = new TermDictionary(new Layer[0]);
+
+    // Oldest first. Layer i holds the ids right after those of layer i - 1.
+    private final Layer[] layers;
+
+    private TermDictionary(Layer[] layers) {
+        this.layers = layers;
+    }
+
+    static TermDictionary empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Reads a dictionary from a buffer produced by {@link #buffer()},
+     * without copying it.
+     */
+    static TermDictionary wrap(ByteBuffer buffer) {
+        return new TermDictionary(new Layer[] { new Layer(0,
+                buffer.slice().order(ByteOrder.LITTLE_ENDIAN)) });
+    }
+
+    /** The whole dictionary as a single layer, ready to be written out. */
+    ByteBuffer buffer() {
+        if (layers.length == 0) {
+            return Layer.build(0, new ArrayList<>()).buffer.duplicate();
+        }
+        if (layers.length == 1) {
+            return layers[0].buffer.duplicate();
+        }
+        return Layer.build(0, terms(0)).buffer;
+    }
+
+    /**
+     * This dictionary, with the layers that are on the heap moved out of
+     * it. Layers added later are on the heap again.
+     */
+    TermDictionary offHeap(OffHeapMemory memory) {
+        Layer[] moved = layers.clone();
+        boolean changed = false;
+        for (int i = 0; i < layers.length; i++) {
+            ByteBuffer buffer = memory.copy(layers[i].buffer);
+            if (buffer != layers[i].buffer) {
+                moved[i] = new Layer(layers[i].start, buffer);
+                changed = true;
+            }
+        }
+        return changed ? new TermDictionary(moved) : this;
+    }
+
+    /** Number of terms. */
+    int size() {
+        return layers.length == 0 ? 0 : layers[layers.length - 1].end();
+    }
+
+    /** Id of a normalized term, or -1 if it does not occur. */
+    int find(String term) {
+        int hash = mix(term.hashCode());
+        for (Layer layer : layers) {
+            int id = layer.find(term, hash);
+            if (id >= 0) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /** The term with the given id. */
+    String term(int id) {
+        for (Layer layer : layers) {
+            if (id < layer.end()) {
+                return layer.term(id);
+            }
+        }
+        throw new IllegalArgumentException("No term with id " + id);
+    }
+
+    /**
+     * This dictionary plus the given terms that are not in it yet, which get
+     * the next ids in the order given.
+     */
+    TermDictionary with(Iterable<String> terms) {
+        List<String> added = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String term : terms) {
+            if (find(term) < 0 && seen.add(term)) {
+                added.add(term);
+            }
+        }
+        if (added.isEmpty()) {
+            return this;
+        }
+        // Takes in the layers on top while they are not larger.
+        int keep = layers.length;
+        int start = size();
+        int count = added.size();
+        while (keep > 0 && layers[keep - 1].size() <= count) {
+            keep--;
+            start = layers[keep].start;
+            count += layers[keep].size();
+        }
+        List<String> layerTerms = terms(keep);
+        layerTerms.addAll(added);
+        Layer[] result = Arrays.copyOf(layers, keep + 1);
+        result[keep] = Layer.build(start, layerTerms);
+        return new TermDictionary(result);
+    }
+
+    /** Ids of the terms that start with prefix. */
+    int[] withPrefix(String prefix) {
+        IdList ids = new IdList();
+        for (Layer layer : layers) {
+            int from = layer.lowerBound(prefix);
+            int to = layer.prefixEnd(prefix, prefix.length(), from);
+            for (int i = from; i < to; i++) {
+                ids.add(layer.sortedId(i));
+            }
+        }
+        return ids.toArray();
+    }
+
+    /**
+     * Ids of the terms matching a pattern, where '?' stands for any char and
+     * '*' for any number of chars. Only terms starting with the chars before
+     * the first wildcard are looked at, so a pattern starting with one looks
+     * at every term.
+     */
+    int[] matching(String pattern) {
+        int literal = 0;
+        while (literal < pattern.length() && pattern.charAt(literal) != '*'
+                && pattern.charAt(literal) != '?') {
+            literal++;
+        }
+        String prefix = pattern.substring(0, literal);
+        if (literal == pattern.length()) {
+            int id = find(prefix);
+            return id < 0 ? new int[0] : new int[] { id };
+        }
+        IdList ids = new IdList();
+        for (Layer layer : layers) {
+            int from = layer.lowerBound(prefix);
+            int to = layer.prefixEnd(prefix, literal, from);
+            for (int i = from; i < to; i++) {
+                if (matches(pattern, literal, layer.sortedTerm(i), literal)) {
+                    ids.add(layer.sortedId(i));
+                }
+            }
+        }
+        return ids.toArray();
+    }
+
+    // Glob match of pattern from p against term from t. Backtracks to the
+    // last '*' only, which is enough as '*' matches any run.
+    private static boolean matches(String pattern, int p, String term, int t) {
+        int star = -1;
+        int starT = 0;
+        while (t < term.length()) {
+            char c = p < pattern.length() ? pattern.charAt(p) : 0;
+            if (p < pattern.length() && c == '*') {
+                star = p++;
+                starT = t;
+            } else if (p < pattern.length() && (c == '?' || c == term.charAt(t))) {
+                p++;
+                t++;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++starT;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    /**
+     * Ids of the terms that are at most maxEdits insertions, deletions or
+     * substitutions of a char away from term.
+     * <p>
+     * Sorted terms are walked like the paths of a trie, one row of the edit
+     * distance table per char of the term being looked at, reusing the rows
+     * of the prefix it shares with the previous term. Once every value of a
+     * row is above maxEdits, no term with that prefix can match and all of
+     * them are skipped with a binary search.
+     */
+    int[] similar(String term, int maxEdits) {
+        IdList ids = new IdList();
+        int m = term.length();
+        // A prefix more than maxEdits longer than term can't match. Rows are
+        // made as prefixes that long come up, as maxEdits can be far more
+        // than any term is long.
+        int maxDepth = (int) Math.min((long) m + maxEdits,
+                Integer.MAX_VALUE - 2);
+        int[][] rows = new int[Math.min(maxDepth, m + 8) + 2][];
+        rows[0] = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            rows[0][j] = j;
+        }
+        for (Layer layer : layers) {
+            String previous = "";
+            // Rows 0 to valid hold the rows of the first chars of previous.
+            int valid = 0;
+            int i = 0;
+            while (i < layer.size()) {
+                String candidate = layer.sortedTerm(i);
+                int depth = Math.min(valid, commonPrefix(previous, candidate));
+                boolean pruned = false;
+                while (depth < candidate.length()) {
+                    if (depth + 1 > maxDepth) {
+                        pruned = true;
+                        depth++;
+                        break;
+                    }
+                    if (depth + 1 == rows.length) {
+                        rows = Arrays.copyOf(rows, 2 * rows.length);
+                    }
+                    if (rows[depth + 1] == null) {
+                        rows[depth + 1] = new int[m + 1];
+                    }
+                    int[] row = rows[depth];
+                    int[] next = rows[depth + 1];
+                    char c = candidate.charAt(depth);
+                    next[0] = depth + 1;
+                    int min = next[0];
+                    for (int j = 1; j <= m; j++) {
+                        int cost = term.charAt(j - 1) == c ? 0 : 1;
+                        next[j] = Math.min(Math.min(next[j - 1], row[j]) + 1,
+                                row[j - 1] + cost);
+                        min = Math.min(min, next[j]);
+                    }
+                    depth++;
+                    if (min > maxEdits) {
+                        pruned = true;
+                        break;
+                    }
+                }
+                previous = candidate;
+                if (pruned) {
+                    valid = depth - 1;
+                    i = layer.prefixEnd(candidate, depth, i);
+                    continue;
+                }
+                valid = depth;
+                if (rows[depth][m] <= maxEdits) {
+                    ids.add(layer.sortedId(i));
+                }
+                i++;
+            }
+        }
+        return ids.toArray();
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /** Size of the dictionary in bytes. */
+    long sizeInBytes() {
+        long bytes = 0;
+        for (Layer layer : layers) {
+            bytes += layer.buffer.capacity();
+        }
+        return bytes;
+    }
+
+    // Terms of the layers from the given one on, in id order.
+    private List<String> terms(int fromLayer) {
+        List<String> terms = new ArrayList<>();
+        for (int i = fromLayer; i < layers.length; i++) {
+            for (int id = layers[i].start; id < layers[i].end(); id++) {
+                terms.add(layers[i].term(id));
+            }
+        }
+        return terms;
+    }
+
+    // Spreads the high bits of String hashes, which cluster for short terms.
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Growable list of ids.
+    private static final class IdList {
+        private int[] ids = new int[16];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+    /**
+     * Terms with consecutive ids, in a single little endian buffer laid out
+     * as:
+     * <pre>
+     *   int termCount, int termCharsLength, int tableSize
+     *   int[termCount + 1] start of each term in the term chars
+     *   int[tableSize]     open addressing table of local id + 1, 0 if free
+     *   int[termCount]     local ids in the sorted order of their terms
+     *   char[termCharsLength] term chars
+     * </pre>
+     */
+    private static final class Layer {
+        private static final int HEADER = 12;
+
+        private final int start;
+        private final ByteBuffer buffer;
+        private final int termCount;
+        private final int tableMask;
+        private final int tablePos;
+        private final int sortedPos;
+        private final int charsPos;
+
+        Layer(int start, ByteBuffer buffer) {
+            this.start = start;
+            this.buffer = buffer;
+            termCount = buffer.getInt(0);
+            tableMask = buffer.getInt(8) - 1;
+            tablePos = HEADER + 4 * (termCount + 1);
+            sortedPos = tablePos + 4 * (tableMask + 1);
+            charsPos = sortedPos + 4 * termCount;
+        }
+
+        static Layer build(int start, List<String> terms) {
+            int tableSize = Integer.highestOneBit(Math.max(1, terms.size()) * 2) * 2;
+            int chars = 0;
+            for (String term : terms) {
+                chars += term.length();
+            }
+            ByteBuffer out = ByteBuffer.allocate(HEADER + 4 * (terms.size() + 1)
+                    + 4 * tableSize + 4 * terms.size() + 2 * chars)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(terms.size()).putInt(chars).putInt(tableSize);
+            int position = 0;
+            for (String term : terms) {
+                out.putInt(position);
+                position += term.length();
+            }
+            out.putInt(position);
+            int tablePos = out.position();
+            for (int i = 0; i < terms.size(); i++) {
+                int slot = mix(terms.get(i).hashCode()) & (tableSize - 1);
+                while (out.getInt(tablePos + 4 * slot) != 0) {
+                    slot = (slot + 1) & (tableSize - 1);
+                }
+                out.putInt(tablePos + 4 * slot, i + 1);
+            }
+            out.position(tablePos + 4 * tableSize);
+            Integer[] sorted = new Integer[terms.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, (a, b) -> terms.get(a).compareTo(terms.get(b)));
+            for (int local : sorted) {
+                out.putInt(local);
+            }
+            for (String term : terms) {
+                for (int i = 0; i < term.length(); i++) {
+                    out.putChar(term.charAt(i));
+                }
+            }
+            out.flip();
+            return new Layer(start, out);
+        }
+
+        int size() {
+            return termCount;
+        }
+
+        int end() {
+            return start + termCount;
+        }
+
+        int find(String term, int hash) {
+            int slot = hash & tableMask;
+            int entry;
+            while ((entry = buffer.getInt(tablePos + 4 * slot)) != 0) {
+                if (matches(entry - 1, term)) {
+                    return start + entry - 1;
+                }
+                slot = (slot + 1) & tableMask;
+            }
+            return -1;
+        }
+
+        String term(int id) {
+            return localTerm(id - start);
+        }
+
+        // Id of the term at the given index in sorted order.
+        int sortedId(int index) {
+            return start + buffer.getInt(sortedPos + 4 * index);
+        }
+
+        String sortedTerm(int index) {
+            return localTerm(buffer.getInt(sortedPos + 4 * index));
+        }
+
+        // Index in sorted order of the first term not less than key.
+        int lowerBound(String key) {
+            int low = 0;
+            int high = termCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(buffer.getInt(sortedPos + 4 * mid), key,
+                        key.length()) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Index in sorted order, from the given one on, of the first term
+        // that does not start with the first length chars of prefix.
+        int prefixEnd(String prefix, int length, int from) {
+            int low = from;
+            int high = termCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(buffer.getInt(sortedPos + 4 * mid), prefix,
+                        length) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Compares a term, cut to length chars, with the first length chars
+        // of key, like String.compareTo.
+        private int compare(int local, String key, int length) {
+            int from = buffer.getInt(HEADER + 4 * local);
+            int termLength = Math.min(length,
+                    buffer.getInt(HEADER + 4 * local + 4) - from);
+            int n = Math.min(termLength, length);
+            for (int i = 0; i < n; i++) {
+                char c = buffer.getChar(charsPos + 2 * (from + i));
+                if (c != key.charAt(i)) {
+                    return c - key.charAt(i);
+                }
+            }
+            return termLength - length;
+        }
+
+        private String localTerm(int local) {
+            int from = buffer.getInt(HEADER + 4 * local);
+            int to = buffer.getInt(HEADER + 4 * local + 4);
+            char[] chars = new char[to - from];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = buffer.getChar(charsPos + 2 * (from + i));
+            }
+            return new String(chars);
+        }
+
+        private boolean matches(int local, String term) {
+            int from = buffer.getInt(HEADER + 4 * local);
+            if (buffer.getInt(HEADER + 4 * local + 4) - from != term.length()) {
+                return false;
+            }
+            for (int i = 0; i < term.length(); i++) {
+                if (buffer.getChar(charsPos + 2 * (from + i)) != term.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,148 +1,739 @@
 package search;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class TextSearcher {
+public class TextSearcher implements Closeable {
 
-private int threadSize = 0;
-private List<Integer> wordCounts = new ArrayList<>();
-private Map<Integer, CallableResult> resultMap;
-private List<String> words = new ArrayList<>();
+// Longest segment handed to one thread. Token offsets are stored relative to
+// the start of their segment as ints, and the buffers of a segment have to
+// stay below 2 GB, which holds for any text up to this length.
+static final long MAX_SEGMENT_LENGTH = 1 << 28;
+// Segments shorter than this are not worth a task of their own.
+static final long MIN_SEGMENT_LENGTH = 1 << 16;
+// Number of segments of about the same size merged into one.
+static final int MERGE_FACTOR = 8;
 
+// Everything searches read. Replaced as a whole, never modified, so
+// searches need no locking.
+private volatile IndexSnapshot snapshot =
+        new IndexSnapshot(TextSource.of(""), TermDictionary.empty(),
+                new CallableResult[0]);
+// Runs the indexing tasks. Shared, so it is never shut down here.
+private ExecutorService executor = ForkJoinPool.commonPool();
+private long minSegmentLength = MIN_SEGMENT_LENGTH;
+// The file being searched and how much of it is indexed, for refresh().
+// Only used holding the lock.
+private File source;
+private Charset charset;
+private long sourceLength;
+// Set while merges are queued or running on the executor.
+private final AtomicBoolean merging = new AtomicBoolean();
+// Held to replace the snapshot. Writers hold the searcher itself while
+// indexing, which takes long and uses the executor, so merges running on
+// the executor only wait for this one.
+private final Object publishLock = new Object();
+// Results of recent searches, or null to not keep any.
+private volatile QueryCache queryCache;
+// Told how long indexing and searches take.
+private volatile SearchMetrics metrics = SearchMetrics.NONE;
+// Makes terms out of the text and of query words.
+private Analyzer analyzer = Analyzer.standard();
+// Where the index is kept outside the heap, or null to keep it on the heap.
+// Only set holding publishLock.
+private volatile OffHeapMemory offHeap;
+// Searches and merges reading the index, which close() waits for on
+// readersDone, notified by the last of them once closed.
+private final LongAdder reading = new LongAdder();
+private final Object readersDone = new Object();
+private volatile boolean closed;
+
+
+/**
+ * Reads the file with the platform default charset, like FileReader would.
+ */
+public TextSearcher(File f) throws IOException {
+    this(f, Charset.defaultCharset());
+}
 
 /**
- * Resolves the future passed as input. Builds a map with thread
- * position as key and the result as value
+ * Maps the file into memory and indexes it straight out of the mapped
+ * pages, so no copy of the file is made on the heap. Files larger than 2 GB
+ * are mapped in windows.
  *
- * @param future Future obtained from callable.
- * @returns m Map
+ * @param f       The file to search.
+ * @param charset The charset the file is encoded in.
  */
-private Function<Future, Map<Integer, CallableResult>> extractFuture = future
-        -> {
-    try {
-        CallableResult result = (CallableResult) future.get();
-        Map<Integer, CallableResult> m = new HashMap();
-        m.put(result.getThreadPosition(), result);
-        return m;
-    } catch (Exception ex) {
-        ex.printStackTrace();
-        return null;
-    }
-};
+public TextSearcher(File f, Charset charset) throws IOException {
+    this(f, charset, ForkJoinPool.commonPool());
+}
 
+/**
+ * Same as {@link #TextSearcher(File, Charset)}, making terms out of the text
+ * and query words with the given analyzer instead of the standard one.
+ */
+public TextSearcher(File f, Charset charset, Analyzer analyzer)
+        throws IOException {
+    this(f, charset, analyzer, ForkJoinPool.commonPool(), SearchMetrics.NONE);
+}
 
-public TextSearcher(File f) throws IOException {
-    FileReader r = new FileReader(f);
-    StringWriter w = new StringWriter();
-    char[] buf = new char[4096];
-    int readCount;
+/**
+ * Same as {@link #TextSearcher(File, Charset)}, indexing on the given
+ * executor instead of the common ForkJoin pool. The executor is not shut
+ * down.
+ */
+public TextSearcher(File f, Charset charset, ExecutorService executor)
+        throws IOException {
+    this(f, charset, executor, SearchMetrics.NONE);
+}
+
+/**
+ * Same as {@link #TextSearcher(File, Charset, ExecutorService)}, reporting
+ * how long indexing and later searches take to the given metrics.
+ */
+public TextSearcher(File f, Charset charset, ExecutorService executor,
+                    SearchMetrics metrics) throws IOException {
+    this(f, charset, Analyzer.standard(), executor, metrics);
+}
+
+/**
+ * The most general constructor: every other one passes its defaults here.
+ *
+ * @param f        The file to search.
+ * @param charset  The charset the file is encoded in.
+ * @param analyzer Makes terms out of the text and of query words.
+ * @param executor Runs the indexing tasks, and is not shut down.
+ * @param metrics  Gets told how long indexing and searches take.
+ */
+public TextSearcher(File f, Charset charset, Analyzer analyzer,
+                    ExecutorService executor, SearchMetrics metrics)
+        throws IOException {
+    this(f, charset, analyzer, executor, metrics, f.length());
+}
+
+// Indexes the first length bytes of the file, and what is appended later.
+private TextSearcher(File f, Charset charset, Analyzer analyzer,
+                     ExecutorService executor, SearchMetrics metrics,
+                     long length) throws IOException {
+    this.analyzer = analyzer;
+    this.executor = executor;
+    this.metrics = metrics;
+    follow(f, charset, length);
+    long started = System.nanoTime();
+    TextSource text = TextSource.map(f, charset, 0, length);
+    metrics.phase(SearchMetrics.Phase.READ, System.nanoTime() - started);
+    init(text);
+}
+
+// Reopens an index read from an index file.
+private TextSearcher(IndexSnapshot snapshot, Analyzer analyzer) {
+    this.snapshot = snapshot;
+    this.analyzer = analyzer;
+}
+
+/**
+ * Opens a file using the index kept next to it, in a file with the same
+ * name plus ".idx". If there is no such index, or it was built from a
+ * different version of the file, the file is indexed and the index written
+ * for next time, if it can be.
+ * <p>
+ * A reopened index is mapped rather than loaded, so opening takes
+ * milliseconds whatever the size of the file.
+ *
+ * @param f       The file to search.
+ * @param charset The charset the file is encoded in.
+ */
+public static TextSearcher open(File f, Charset charset) throws IOException {
+    return open(f, charset, IndexFile.defaultFor(f));
+}
+
+/**
+ * Same as {@link #open(File, Charset)}, keeping the index in the given file.
+ */
+public static TextSearcher open(File f, Charset charset, File indexFile)
+        throws IOException {
+    return open(f, charset, indexFile, Analyzer.standard());
+}
+
+/**
+ * Same as {@link #open(File, Charset, File)}, making terms with the given
+ * analyzer. An index written with another analyzer is not used.
+ */
+public static TextSearcher open(File f, Charset charset, File indexFile,
+                                Analyzer analyzer) throws IOException {
+    // Taken first: the index covers this much of the file, however much is
+    // appended while it is built.
+    IndexFile.Stamp stamp = IndexFile.Stamp.of(f);
+    long length = stamp.length();
+    IndexSnapshot snapshot = IndexFile.read(indexFile, stamp, charset, analyzer,
+            TextSource.map(f, charset, 0, length));
+    if (snapshot != null) {
+        TextSearcher searcher = new TextSearcher(snapshot, analyzer);
+        searcher.follow(f, charset, length);
+        return searcher;
+    }
+    TextSearcher searcher = new TextSearcher(f, charset, analyzer,
+            ForkJoinPool.commonPool(), SearchMetrics.NONE, length);
+    try {
+        IndexFile.write(indexFile, stamp, charset, analyzer, searcher.snapshot);
+    } catch (IOException ex) {
+        // Expected in a read-only directory for instance, and not a failure:
+        // the index file only saves indexing next time, the searcher works
+        // without it.
+    }
+    return searcher;
+}
 
-    while ((readCount = r.read(buf)) > 0) {
-        w.write(buf, 0, readCount);
+/**
+ * Same as {@link #open(File, Charset, File, Analyzer)}, indexing with about
+ * memoryLimit bytes of heap besides the terms, for files larger than the
+ * heap. The file is indexed a chunk at a time into runs spilled next to the
+ * index file, which are then merged into it, see
+ * {@link ExternalIndexBuilder}. The charset must be ASCII compatible.
+ */
+public static TextSearcher open(File f, Charset charset, File indexFile,
+                                Analyzer analyzer, long memoryLimit)
+        throws IOException {
+    IndexFile.Stamp stamp = IndexFile.Stamp.of(f);
+    long length = stamp.length();
+    IndexSnapshot snapshot = IndexFile.read(indexFile, stamp, charset, analyzer,
+            TextSource.map(f, charset, 0, length));
+    if (snapshot == null) {
+        ExternalIndexBuilder.forMemoryLimit(analyzer, ForkJoinPool.commonPool(),
+                memoryLimit).build(f, stamp, charset, indexFile);
+        snapshot = IndexFile.read(indexFile, stamp, charset, analyzer,
+                TextSource.map(f, charset, 0, length));
+        if (snapshot == null) {
+            throw new IOException("Could not read back " + indexFile);
+        }
     }
+    TextSearcher searcher = new TextSearcher(snapshot, analyzer);
+    searcher.follow(f, charset, length);
+    return searcher;
+}
 
-    init(w.toString());
+// For tests and benchmarks that want small segments.
+TextSearcher(TextSource text, ExecutorService executor, long minSegmentLength) {
+    this(text, Analyzer.standard(), executor, minSegmentLength);
+}
+
+TextSearcher(TextSource text, Analyzer analyzer, ExecutorService executor,
+             long minSegmentLength) {
+    this.analyzer = analyzer;
+    this.executor = executor;
+    this.minSegmentLength = minSegmentLength;
+    init(text);
 }
 
 /**
  * Initializes any internal data structures that are needed for
- * this class to implement search efficiently.
+ * this class to implement search efficiently. Searches running meanwhile
+ * keep using the previous index until the new one is complete.
  */
 protected void init(String fileContents) {
     synchronized (this) {
+        // The file, if any, is not what is searched any more.
+        source = null;
+        init(TextSource.of(fileContents));
+    }
+}
+
+private void init(TextSource fileContents) {
+    synchronized (this) {
+        ensureOpen();
         try {
-            //Positions where the string can be split.
-            List<Integer> positions = findBreakPoints(fileContents);
-
-            // Number of threads = number of breakpoints -1.
-            threadSize = positions.size() - 1;
-
-            // A thread pool with the number of threads determined.
-            ExecutorService executorService = Executors.newFixedThreadPool(threadSize);
-            List<Callable<CallableResult>> callables = new ArrayList<>();
-
-            //Initiates the thread pool with the file contents, where to start,
-            //where to end and the thread number.
-            IntStream.range(0, threadSize).forEach(i ->
-                    callables.add(callable(fileContents, positions.get(i),
-                            positions.get(i + 1), i)));
-            //Invokes all threads in parallel.
-            //Stores the result as a map Map<Integer,CallableResult>
-            /*Execution complexity:
-                Best case: O(n)/number of threads. If the spring is split
-                equally among all the threads
-                worst case: O/n. If there is only one sentence in the string.
-             */
-            resultMap = executorService.invokeAll(callables).stream()
-                    .map(extractFuture).reduce((m1, m2) -> {
-                        m1.putAll(m2);
-                        return m1;
-                    }).orElse(new HashMap<>());
-            int runningCount = 0;
-            //Takes each word and puts it in an array.
-            for (int i = 0; i < threadSize; i++) {
-                runningCount = runningCount + resultMap.get(i).getWords().size();
-                wordCounts.add(runningCount);
-                System.out.println(resultMap.get(i).getWords());
-                words.addAll(resultMap.get(i).getWords());
+            ScannedSegment[] scanned = scan(fileContents, 0,
+                    fileContents.length());
+            long started = System.nanoTime();
+            TermDictionary terms = TermDictionary.empty().with(termsOf(scanned));
+            CallableResult[] segments = build(scanned, terms);
+            metrics.phase(SearchMetrics.Phase.MERGE, System.nanoTime() - started);
+            // Publishes the new index in one write.
+            synchronized (publishLock) {
+                publish(new IndexSnapshot(fileContents, terms, segments));
             }
-            System.out.println(words);
+            clearQueryCache();
+            reportIndex();
         } catch (Exception ex) {
             ex.printStackTrace();
         }
     }
 }
 
+private void follow(File f, Charset charset, long length) {
+    synchronized (this) {
+        source = f;
+        this.charset = charset;
+        sourceLength = length;
+    }
+}
+
+/**
+ * Scans the text between start and end, split into segments scanned in
+ * parallel.
+ *
+ * @return the segments, in text order.
+ */
+ScannedSegment[] scan(TextSource text, long start, long end)
+        throws InterruptedException, ExecutionException {
+    SearchMetrics metrics = this.metrics;
+    long started = System.nanoTime();
+    //Positions where the string can be split.
+    long[] positions = findBreakPoints(text, start, end,
+            segmentCount(end - start));
+    metrics.phase(SearchMetrics.Phase.PARTITION, System.nanoTime() - started);
+    started = System.nanoTime();
+
+    // Number of threads = number of breakpoints -1.
+    int threadSize = positions.length - 1;
+
+    List<Callable<ScannedSegment>> callables = new ArrayList<>();
+    //Initiates the tasks with the file contents, where to start,
+    //where to end and the thread number.
+    for (int i = 0; i < threadSize; i++) {
+        callables.add(callable(text, positions[i], positions[i + 1], i));
+    }
+    //Invokes all tasks in parallel. The futures come back in the
+    //order of the tasks, which is the order of the segments.
+    List<Future<ScannedSegment>> futures = executor.invokeAll(callables);
+    ScannedSegment[] segments = new ScannedSegment[threadSize];
+    long[] lengths = new long[threadSize];
+    for (int i = 0; i < threadSize; i++) {
+        segments[i] = futures.get(i).get();
+        lengths[i] = positions[i + 1] - positions[i];
+    }
+    metrics.phase(SearchMetrics.Phase.TOKENIZE, System.nanoTime() - started);
+    metrics.segments(lengths);
+    return segments;
+}
+
+// The terms of scanned segments, segment by segment, so that they get
+// their ids in text order.
+static List<String> termsOf(ScannedSegment[] scanned) {
+    List<String> terms = new ArrayList<>();
+    for (ScannedSegment segment : scanned) {
+        terms.addAll(segment.postings.terms());
+    }
+    return terms;
+}
+
+// Builds the postings of scanned segments in parallel, keyed by the ids of
+// their terms, which all have to be in the dictionary.
+CallableResult[] build(ScannedSegment[] scanned, TermDictionary terms)
+        throws InterruptedException, ExecutionException {
+    List<Callable<CallableResult>> callables = new ArrayList<>();
+    for (ScannedSegment segment : scanned) {
+        callables.add(() -> segment.build(terms));
+    }
+    List<Future<CallableResult>> futures = executor.invokeAll(callables);
+    CallableResult[] segments = new CallableResult[scanned.length];
+    for (int i = 0; i < scanned.length; i++) {
+        segments[i] = futures.get(i).get();
+    }
+    return segments;
+}
+
 /**
- * Takes filecontents and splits it into different segments to be processed
- * by different threads without over lap. It tries to divide the thread into
- * 4 equal segments. But inorder to avoid split words, if the initial
- * position is not the end of a sentence, it iterates till it finds a fullstop.
+ * Adds text at the end of the text being searched. Only the new text is
+ * indexed, in segments of its own, plus the last word of the old text if
+ * the new text carries on with it. Searches running meanwhile see the text
+ * either with or without the addition.
  * <p>
- * TODO: This method has scope for improvement. instead of searching for the
- * end of the string, this method can be made to break at the end of a word.
- * However, for simplicity and lack of time, I have taken this approach.
- * Also, currently the thread size is fixed to 4. However, a smarter approach
- * would be to decide based on the number of cores available and the size of
- * the file.
+ * Small segments left by appends are merged in the background, on the
+ * executor.
  *
- * @Params: Filecontents
- * @Returns breakpoints
- */
-private List<Integer> findBreakPoints(String fileContents) {
-    final int wordCount = fileContents.length();
-    int size = wordCount / 4;
-    List<Integer> positions = new ArrayList<>();
-    //First thread always starts at 0
-    positions.add(0);
-    for (int i = 0; i <= 3; i++) {
-        // TODO: This needs to be improved.
-        // Currently it looks for the first fullstop after the expected size
-        // position.
-        // In this case: If "www.google.com" comes after the expected size
-        // position, it will break at www. But www.google.com is a single word.
-        int breakPoint = i == 3 ? fileContents.length() - 1 : fileContents
-                .indexOf(".", size * (i + 1)) + 1;
-        if (breakPoint >= fileContents.length()) {
-            positions.add(fileContents.length() - 1);
-            break;
+ * @param text The text to add, which is not separated from the current
+ *             text by anything: start it with whitespace to add new words.
+ */
+public void append(CharSequence text) {
+    if (text.length() == 0) {
+        return;
+    }
+    synchronized (this) {
+        ensureOpen();
+        IndexSnapshot current = snapshot;
+        extend(current, current.text().encode(text));
+    }
+    scheduleMerge();
+}
+
+/**
+ * Indexes whatever was added to the end of the file since it was last
+ * indexed, the way {@link #append(CharSequence)} does. Meant for files
+ * that only grow, such as logs: a file that was truncated or rewritten
+ * needs a new TextSearcher.
+ *
+ * @return whether the file had grown.
+ * @throws IllegalStateException if the searcher was not built from a file,
+ *                               or was given other text since.
+ */
+public boolean refresh() throws IOException {
+    synchronized (this) {
+        ensureOpen();
+        if (source == null) {
+            throw new IllegalStateException("Not searching a file");
+        }
+        long length = source.length();
+        if (length <= sourceLength) {
+            return false;
+        }
+        long started = System.nanoTime();
+        TextSource more = TextSource.map(source, charset, sourceLength, length);
+        metrics.phase(SearchMetrics.Phase.READ, System.nanoTime() - started);
+        extend(snapshot, more);
+        sourceLength = length;
+    }
+    scheduleMerge();
+    return true;
+}
+
+// Indexes text that follows the text of the current snapshot and publishes
+// both together. Called holding the lock.
+private void extend(IndexSnapshot current, TextSource more) {
+    TextSource text = TextSource.concat(current.text(), more);
+    long from = current.text().length();
+    // A word cut in two by the end of the old text is taken out of its
+    // segment and indexed again, whole, with the new text.
+    CallableResult cut = null;
+    if (from > 0 && from < text.length()
+            && !WordScanner.isWhitespace(text.charAt(from - 1))
+            && !WordScanner.isWhitespace(text.charAt(from))) {
+        cut = current.segments()[lastWithTokens(current.segments())];
+        from = cut.getTextStart()
+                + cut.getOffsets().start(cut.getTokenCount() - 1);
+    }
+    try {
+        ScannedSegment[] scanned = scan(text, from, text.length());
+        long started = System.nanoTime();
+        // Init and appends hold the searcher lock and merges keep the
+        // dictionary, so current has the latest one.
+        TermDictionary terms = current.terms().with(termsOf(scanned));
+        CallableResult[] added = build(scanned, terms);
+        metrics.phase(SearchMetrics.Phase.MERGE, System.nanoTime() - started);
+        synchronized (publishLock) {
+            // Merges may have replaced segments meanwhile, but never the
+            // last one with tokens, and they keep the text as it is.
+            CallableResult[] segments = snapshot.segments();
+            if (cut != null) {
+                int last = lastWithTokens(segments);
+                segments[last] = segments[last].withoutLastToken();
+            }
+            CallableResult[] all = Arrays.copyOf(segments,
+                    segments.length + added.length);
+            System.arraycopy(added, 0, all, segments.length, added.length);
+            publish(new IndexSnapshot(text, terms, all));
         }
-        positions.add(breakPoint);
+        clearQueryCache();
+        reportIndex();
+    } catch (Exception ex) {
+        ex.printStackTrace();
+    }
+}
+
+// Queues merges on the executor, unless there is nothing to merge or they
+// are queued already.
+private void scheduleMerge() {
+    if (findMergeRun(snapshot.segments()) < 0
+            || !merging.compareAndSet(false, true)) {
+        return;
+    }
+    try {
+        executor.execute(() -> {
+            try {
+                while (mergeSegments()) {
+                    // Merged segments can make up a run of their own.
+                }
+            } finally {
+                merging.set(false);
+            }
+            // Appends that came in after the last merge skipped queueing.
+            scheduleMerge();
+        });
+    } catch (RejectedExecutionException ex) {
+        // The executor was shut down, the segments stay as they are.
+        merging.set(false);
+    }
+}
+
+/**
+ * Merges one run of segments by indexing their text again as a single
+ * segment, while searches go on with the old ones.
+ *
+ * @return false if there was nothing to merge, the index was replaced
+ * while merging, or the searcher is closed.
+ */
+boolean mergeSegments() {
+    reading.increment();
+    try {
+        return !closed && mergeRun();
+    } finally {
+        exit();
     }
-    System.out.println(positions);
-    return positions;
+}
 
+private boolean mergeRun() {
+    IndexSnapshot current = snapshot;
+    CallableResult[] segments = current.segments();
+    int first = findMergeRun(segments);
+    if (first < 0) {
+        return false;
+    }
+    int end = first + MERGE_FACTOR;
+    CallableResult merged;
+    try {
+        long started = System.nanoTime();
+        // Every term of the run is in the dictionary already.
+        merged = callable(current.text(), segments[first].getTextStart(),
+                segments[end].getTextStart(), first).call()
+                .build(current.terms());
+        metrics.phase(SearchMetrics.Phase.SEGMENT_MERGE,
+                System.nanoTime() - started);
+    } catch (Exception ex) {
+        ex.printStackTrace();
+        return false;
+    }
+    synchronized (publishLock) {
+        IndexSnapshot latest = snapshot;
+        CallableResult[] now = latest.segments();
+        // Appends only add segments after the run, or take the last word
+        // of the last segment with tokens, which is never part of a run.
+        // Anything else means init() replaced the index.
+        for (int i = first; i < end; i++) {
+            if (i >= now.length || now[i] != segments[i]) {
+                return false;
+            }
+        }
+        CallableResult[] all = new CallableResult[now.length - MERGE_FACTOR + 1];
+        System.arraycopy(now, 0, all, 0, first);
+        all[first] = merged;
+        System.arraycopy(now, end, all, first + 1, now.length - end);
+        publish(new IndexSnapshot(latest.text(), latest.terms(), all));
+    }
+    reportIndex();
+    return true;
+}
+
+/**
+ * Finds MERGE_FACTOR segments in a row that are shorter than
+ * minSegmentLength and of about the same length, within a factor of
+ * MERGE_FACTOR. Merging like sized segments only means each char is indexed
+ * again a logarithmic number of times. The last segment with tokens and
+ * those after it are never merged, as the next append may take its last
+ * word.
+ *
+ * @return the first segment of the run, or -1 if there is none.
+ */
+private int findMergeRun(CallableResult[] segments) {
+    int run = 0;
+    int runClass = -1;
+    int end = lastWithTokens(segments);
+    for (int i = 0; i < end; i++) {
+        long length = segments[i + 1].getTextStart()
+                - segments[i].getTextStart();
+        int sizeClass = length >= minSegmentLength
+                || length > MAX_SEGMENT_LENGTH / MERGE_FACTOR ? -1
+                : (63 - Long.numberOfLeadingZeros(Math.max(1, length))) / 3;
+        run = sizeClass >= 0 && sizeClass == runClass ? run + 1 : 1;
+        runClass = sizeClass;
+        if (sizeClass >= 0 && run == MERGE_FACTOR) {
+            return i - MERGE_FACTOR + 1;
+        }
+    }
+    return -1;
+}
+
+// Index of the last segment that has tokens, or -1.
+private static int lastWithTokens(CallableResult[] segments) {
+    int last = segments.length - 1;
+    while (last >= 0 && segments[last].getTokenCount() == 0) {
+        last--;
+    }
+    return last;
+}
+
+/**
+ * Reports how long indexing and searches take to the given metrics, from
+ * now on. Indexing done by constructors is only reported to metrics given
+ * to the constructor.
+ */
+public void setMetrics(SearchMetrics metrics) {
+    this.metrics = Objects.requireNonNull(metrics);
+}
+
+/** Where indexing and search times are reported, SearchMetrics.NONE by default. */
+public SearchMetrics getMetrics() {
+    return metrics;
+}
+
+private void reportIndex() {
+    IndexSnapshot snapshot = this.snapshot;
+    metrics.index(snapshot.sizeInBytes(), snapshot.text().length());
+}
+
+// Reports a search that started at the given System.nanoTime().
+private void reportSearch(SearchMetrics.Query query, long started, int hits) {
+    metrics.search(query, System.nanoTime() - started, hits);
+}
+
+/** Makes terms out of the text and of query words. */
+public Analyzer getAnalyzer() {
+    return analyzer;
+}
+
+// The current index, for CorpusSearcher and tests.
+IndexSnapshot snapshot() {
+    return snapshot;
+}
+
+// Replaces the index, moving it out of the heap first if it is kept there.
+// Called holding publishLock.
+private void publish(IndexSnapshot next) {
+    OffHeapMemory memory = offHeap;
+    snapshot = memory == null ? next : next.offHeap(memory);
+}
+
+/**
+ * Moves the term dictionary, the postings and the token offsets out of the
+ * Java heap into direct memory, and keeps what later appends and merges
+ * add there too. Only a few objects per segment are left on the heap, so
+ * the garbage collector has as little to do with a large index as with a
+ * small one. An index read from an index file is mapped and outside the
+ * heap already. The memory is freed by {@link #close()}, or by the garbage
+ * collector once segments are replaced by merges.
+ */
+public void moveOffHeap() {
+    synchronized (publishLock) {
+        ensureOpen();
+        if (offHeap == null) {
+            offHeap = new OffHeapMemory();
+            publish(snapshot);
+        }
+    }
+}
+
+/** Whether the index is kept outside the heap, see {@link #moveOffHeap()}. */
+public boolean isOffHeap() {
+    return offHeap != null;
+}
+
+/**
+ * Frees the memory the index was moved to by {@link #moveOffHeap()}, once
+ * the searches running are done. Searching, appending or refreshing
+ * afterwards throws IllegalStateException, and so does reading streams of
+ * hits, or the context of hits not asked for yet.
+ */
+@Override
+public void close() {
+    synchronized (this) {
+        synchronized (publishLock) {
+            closed = true;
+        }
+    }
+    // Searches that saw it open are counted by now, and notify once they
+    // all exited.
+    boolean interrupted = false;
+    synchronized (readersDone) {
+        while (reading.sum() > 0) {
+            try {
+                readersDone.wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+    }
+    OffHeapMemory memory = offHeap;
+    if (memory != null) {
+        memory.close();
+    }
+    if (interrupted) {
+        Thread.currentThread().interrupt();
+    }
+}
+
+// Counts a search in until exit(), so that close() waits for it. Also used
+// by hits, which read the index when their context is asked for.
+void enter() {
+    reading.increment();
+    if (closed) {
+        exit();
+        throw new IllegalStateException("TextSearcher is closed");
+    }
+}
+
+void exit() {
+    reading.decrement();
+    if (closed) {
+        synchronized (readersDone) {
+            readersDone.notifyAll();
+        }
+    }
+}
+
+private void ensureOpen() {
+    if (closed) {
+        throw new IllegalStateException("TextSearcher is closed");
+    }
+}
+
+/**
+ * Number of segments to split a text of the given length into: one per
+ * core the executor can use, as long as each segment is at least
+ * minSegmentLength long, and never segments longer than MAX_SEGMENT_LENGTH.
+ */
+private int segmentCount(long length) {
+    int parallelism = executor instanceof ForkJoinPool
+            ? ((ForkJoinPool) executor).getParallelism()
+            : Runtime.getRuntime().availableProcessors();
+    long bySize = Math.max(1, length / minSegmentLength);
+    long atLeast = (length + MAX_SEGMENT_LENGTH - 1) / MAX_SEGMENT_LENGTH;
+    return (int) Math.max(atLeast, Math.min(parallelism, bySize));
+}
+
+/**
+ * Takes filecontents and splits it into the given number of segments of
+ * about the same length, to be processed by different threads without
+ * over lap. Inorder to avoid split words, if the initial position is not
+ * whitespace, it iterates till it finds one. A segment can come out empty
+ * if a single word spans it, in which case it is dropped.
+ *
+ * @Params: Filecontents, start and end of the text to split, segments
+ * @Returns breakpoints, starting with start and ending with end
+ */
+private long[] findBreakPoints(TextSource fileContents, long start,
+                               long end, int segments) {
+    long[] positions = new long[segments + 1];
+    int count = 1;
+    //First thread always starts at the start
+    positions[0] = start;
+    for (int i = 1; i < segments; i++) {
+        long breakPoint = Math.max(start + (end - start) / segments * i,
+                positions[count - 1]);
+        while (breakPoint < end
+                && !WordScanner.isWhitespace(fileContents.charAt(breakPoint))) {
+            breakPoint++;
+        }
+        if (breakPoint >= end) {
+            break;
+        }
+        if (breakPoint > positions[count - 1]) {
+            positions[count++] = breakPoint;
+        }
+    }
+    positions[count++] = end;
+    return Arrays.copyOf(positions, count);
 }
 
 /**
@@ -151,57 +742,35 @@ private List<Integer> findBreakPoints(String fileContents) {
  *      1) builds a key value pair, where key is each distinct string and
  *      value is the position of occurrance of the string with in the segment
  *      the current thread operates on. This strips all special characters
- *      and spaces.
- *      2) builds an array of words retaining special characters and spaces
+ *      and spaces. Terms only get their ids once every segment is scanned.
+ *      2) records where each whitespace separated token starts and ends in
+ *      the text, so context can later be cut out of the text as is.
  *
  * @Params: text, Input text
  * @param: start, start position from where the current thread should operate
- * @Params: end, the position till which the current string should operate
+ * @Params: end, the position (exclusive) till which the current thread should operate
  * @Params: threadposition, the index of thread
  * @Returns future
 
  */
 
 
-private Callable<CallableResult> callable(String text, int start, int end
+private Callable<ScannedSegment> callable(TextSource text, long start, long end
         , int threadPosition) {
     return () -> {
-        Map<String, Set<Integer>> stringPosition = new HashMap<>();
-        List<String> words = new ArrayList<>();
-        String word = "";
-        boolean found = false;
-        for (int i = start; i <= end; i++) {
-            if (text.charAt(i) == ' ') {
-                if (word.trim().length() < 1) {
-                    // To eliminate the space added by list.addAll
-                    word = i>start? word.concat(String.valueOf(text.charAt
-                            (i))):"";
-                } else {
-                    words.add(word);
-                    found = true;
-                }
-            } else if (i == end) {
-                word = word.concat(String.valueOf(text.charAt(i)));
-                words.add(word);
-                found = true;
-            } else word = word.concat(String.valueOf(text.charAt(i)));
-            if (found) {
-                String str = word.replaceAll("\\s*\\p{Punct}+\\s*$", "")
-                        .toLowerCase();
-                Set<Integer> positions = stringPosition.get(str);
-                if (positions == null) {
-                    Set<Integer> pos = new HashSet<>();
-                    pos.add(words.size() - 1);
-                    stringPosition.put(str, pos);
-                } else {
-                    positions.add(words.size() - 1);
-                    stringPosition.put(str, positions);
-                }
-                word = "";
-                found = false;
-            }
-        }
-        return new CallableResult(stringPosition, threadPosition, words);
+        PostingsIndex.Builder postings = new PostingsIndex.Builder();
+        TokenOffsets.Builder offsets = new TokenOffsets.Builder();
+        analyzer.scan(text, start, end,
+                (wordStart, wordEnd, term, termLength, hash) -> {
+                    // Dropped words keep their position, without a term.
+                    if (termLength >= 0) {
+                        postings.add(term, termLength, hash, offsets.size());
+                    }
+                    // Offsets are kept relative to the segment start.
+                    offsets.add((int) (wordStart - start), (int) (wordEnd - start));
+                });
+        return new ScannedSegment(postings, threadPosition, start,
+                offsets.build());
     };
 }
 
@@ -212,63 +781,565 @@ private Callable<CallableResult> callable(String text, int start, int end
  * @return One context string for each time the query word appears in the file.
  */
 public String[] search(String queryWord, int contextWords) {
-    // Contains the positions of the occurrence of the words.
-    Set<Integer> positions = new TreeSet<>();
-    //Search individually in the result returned by each thread;
-    for (int i = 0; i < threadSize; i++) {
-        // Since only final can be used in lambdas.
-        final int threadPosition = i;
-        CallableResult result = resultMap.get(i);
-        //Convert incoming query to lower case and search in the map.
-        //The map returns the position of occurrence in the word array.
-        Set<Integer> pos = result.getStringPosition().get(queryWord.toLowerCase());
-        if (pos != null) {
-            // Add to the positions list.
-            positions.addAll(i == 0 ? pos : pos.stream().map(p -> wordCounts.get(threadPosition - 1)
-                    + p).collect(Collectors.toSet()));
+    long started = System.nanoTime();
+    String[] hits;
+    enter();
+    try {
+        hits = find(queryWord, contextWords);
+    } finally {
+        exit();
+    }
+    reportSearch(SearchMetrics.Query.WORD, started, hits.length);
+    return hits;
+}
+
+private String[] find(String queryWord, int contextWords) {
+    IndexSnapshot snapshot = this.snapshot;
+    // Normalized once, the same way the indexed words were.
+    String term = analyzer.normalize(queryWord);
+    if (contextWords <= 0) {
+        String[] strings = new String[snapshot.count(term)];
+        Arrays.fill(strings, queryWord);
+        return strings;
+    }
+    QueryCache cache = queryCache;
+    if (cache != null) {
+        String[] cached = cache.get(term, contextWords, snapshot.text());
+        if (cached != null) {
+            return cached.clone();
+        }
+    }
+    int[] positions = snapshot.positions(new String[] { term })[0];
+    String[] contexts = snapshot.contexts(positions, positions, contextWords);
+    if (cache != null) {
+        cache.put(term, contextWords, snapshot.text(), contexts.clone());
+    }
+    return contexts;
+}
+
+/**
+ * Keeps the results of recent searches with context in the given cache,
+ * so that repeated ones are answered without reading the index or the
+ * text again. Null stops caching.
+ */
+public void setQueryCache(QueryCache queryCache) {
+    this.queryCache = queryCache;
+}
+
+/** The cache of search results, or null if there is none. */
+public QueryCache getQueryCache() {
+    return queryCache;
+}
+
+// Drops cached results once the text changed. The cache also checks the
+// text of each result, so a result of the old text stored after this is
+// never used.
+private void clearQueryCache() {
+    QueryCache cache = queryCache;
+    if (cache != null) {
+        cache.clear();
+    }
+}
+
+/**
+ * Number of times a word occurs, found from the index alone: no position
+ * is decoded and no context is cut out of the text.
+ *
+ * @param queryWord The word to count in the file contents.
+ */
+public int count(String queryWord) {
+    long started = System.nanoTime();
+    int count;
+    enter();
+    try {
+        count = snapshot.count(analyzer.normalize(queryWord));
+    } finally {
+        exit();
+    }
+    reportSearch(SearchMetrics.Query.COUNT, started, count);
+    return count;
+}
+
+/**
+ * One page of what {@link #search(String, int)} returns. Only the context
+ * of the hits on the page is cut out of the text, and the positions of
+ * earlier hits are skipped segment by segment where possible.
+ *
+ * @param queryWord    The word to search for in the file contents.
+ * @param contextWords The number of words of context to provide on
+ *                     each side of the query word.
+ * @param offset       Number of hits to skip.
+ * @param limit        Most hits to return.
+ * @return The context strings of hits offset to offset + limit.
+ */
+public String[] search(String queryWord, int contextWords, int offset,
+                       int limit) {
+    if (offset < 0 || limit < 0) {
+        throw new IllegalArgumentException("Negative offset or limit: "
+                + offset + ", " + limit);
+    }
+    long started = System.nanoTime();
+    String[] hits;
+    enter();
+    try {
+        hits = findPage(queryWord, contextWords, offset, limit);
+    } finally {
+        exit();
+    }
+    reportSearch(SearchMetrics.Query.PAGE, started, hits.length);
+    return hits;
+}
+
+private String[] findPage(String queryWord, int contextWords, int offset,
+                          int limit) {
+    IndexSnapshot snapshot = this.snapshot;
+    String term = analyzer.normalize(queryWord);
+    IndexSnapshot.TermPositions iterator = snapshot.iterator(term);
+    int[] positions = new int[(int) Math.max(0, Math.min(limit,
+            (long) snapshot.count(term) - offset))];
+    iterator.skip(offset);
+    for (int i = 0; i < positions.length; i++) {
+        positions[i] = iterator.nextInt();
+    }
+    if (contextWords > 0) {
+        return snapshot.contexts(positions, positions, contextWords);
+    }
+    String[] strings = new String[positions.length];
+    Arrays.fill(strings, queryWord);
+    return strings;
+}
+
+/**
+ * The hits of a word, in text order, read from the index as the stream is
+ * consumed. Each hit only cuts its context out of the text when asked for
+ * it, so skipping or counting hits costs no strings. The stream searches
+ * the index as it was when this was called. As it is read at the pace of
+ * the caller, it is not reported to the metrics. Reading the stream or the
+ * context of its hits once the searcher is closed throws
+ * IllegalStateException.
+ *
+ * @param queryWord    The word to search for in the file contents.
+ * @param contextWords The number of words of context the hits give on
+ *                     each side of the query word.
+ */
+public Stream<Hit> hits(String queryWord, int contextWords) {
+    IndexSnapshot snapshot = this.snapshot;
+    String term = analyzer.normalize(queryWord);
+    IndexSnapshot.TermPositions positions;
+    int count;
+    enter();
+    try {
+        positions = snapshot.iterator(term);
+        count = snapshot.count(term);
+    } finally {
+        exit();
+    }
+    Iterator<Hit> hits = new Iterator<Hit>() {
+        @Override
+        public boolean hasNext() {
+            enter();
+            try {
+                return positions.hasNext();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public Hit next() {
+            enter();
+            try {
+                return new Hit(null, positions.nextInt(), TextSearcher.this,
+                        snapshot, contextWords, queryWord);
+            } finally {
+                exit();
+            }
+        }
+    };
+    return StreamSupport.stream(Spliterators.spliterator(hits, count,
+            Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE),
+            false);
+}
+
+/**
+ * Searches for many words at once. Words that are the same once
+ * normalized are looked up once, all the postings are read in a single pass
+ * over the segments, and context that overlaps between hits is read from
+ * the text once.
+ *
+ * @param queryWords   The words to search for.
+ * @param contextWords The number of words of context to provide on
+ *                     each side of the query words.
+ * @return For each distinct query word, in the order given, what
+ * {@link #search(String, int)} would return for it.
+ */
+public Map<String, String[]> searchAll(Collection<String> queryWords,
+                                       int contextWords) {
+    long started = System.nanoTime();
+    Map<String, String[]> found;
+    enter();
+    try {
+        found = findAll(queryWords, contextWords);
+    } finally {
+        exit();
+    }
+    int hits = 0;
+    for (String[] wordHits : found.values()) {
+        hits += wordHits.length;
+    }
+    reportSearch(SearchMetrics.Query.ALL, started, hits);
+    return found;
+}
+
+private Map<String, String[]> findAll(Collection<String> queryWords,
+                                      int contextWords) {
+    Map<String, Integer> termIds = new HashMap<>();
+    Map<String, Integer> wordTerms = new LinkedHashMap<>();
+    for (String queryWord : queryWords) {
+        String term = analyzer.normalize(queryWord);
+        Integer id = termIds.get(term);
+        if (id == null) {
+            id = termIds.size();
+            termIds.put(term, id);
+        }
+        wordTerms.put(queryWord, id);
+    }
+    String[] terms = new String[termIds.size()];
+    for (Map.Entry<String, Integer> entry : termIds.entrySet()) {
+        terms[entry.getValue()] = entry.getKey();
+    }
+    IndexSnapshot snapshot = this.snapshot;
+    int[][] positions = snapshot.positions(terms);
+
+    Map<String, String[]> found = new LinkedHashMap<>();
+    if (contextWords <= 0) {
+        for (Map.Entry<String, Integer> entry : wordTerms.entrySet()) {
+            String[] strings = new String[positions[entry.getValue()].length];
+            Arrays.fill(strings, entry.getKey());
+            found.put(entry.getKey(), strings);
+        }
+        return found;
+    }
+    // Context of all the hits together, so that overlapping windows of
+    // different words share the text they are cut from. Distinct terms never
+    // share a position.
+    int[] all = Positions.merge(positions);
+    String[] allContexts = snapshot.contexts(all, all, contextWords);
+    String[][] termContexts = new String[terms.length][];
+    for (int t = 0; t < terms.length; t++) {
+        termContexts[t] = new String[positions[t].length];
+        for (int i = 0; i < positions[t].length; i++) {
+            termContexts[t][i] = allContexts[Arrays.binarySearch(all,
+                    positions[t][i])];
+        }
+    }
+    for (Map.Entry<String, Integer> entry : wordTerms.entrySet()) {
+        found.put(entry.getKey(), termContexts[entry.getValue()].clone());
+    }
+    return found;
+}
+
+/**
+ * Searches for a phrase: words that follow each other in the text, whatever
+ * is between them. Case and trailing punctuation of the words are ignored,
+ * like for single words.
+ *
+ * @param phrase       The words to search for, separated by whitespace.
+ * @param contextWords The number of words of context to provide on each
+ *                     side of the phrase.
+ * @return One context string for each time the phrase appears in the file.
+ * With no context, the phrase as it appears in the file.
+ */
+public String[] searchPhrase(String phrase, int contextWords) {
+    long started = System.nanoTime();
+    String[] terms = phraseTerms(phrase);
+    String[] hits = new String[0];
+    enter();
+    try {
+        if (terms.length > 0) {
+            IndexSnapshot snapshot = this.snapshot;
+            int[][] spans = snapshot.phrase(terms);
+            hits = snapshot.contexts(spans[0], spans[1], Math.max(0, contextWords));
         }
+    } finally {
+        exit();
+    }
+    reportSearch(SearchMetrics.Query.PHRASE, started, hits.length);
+    return hits;
+}
+
+/**
+ * Searches for two words that are at most maxDistance words apart, in
+ * either order. Each occurrence of the first word gives at most one hit,
+ * spanning it and the nearest occurrence of the second word.
+ *
+ * @param firstWord    The word each hit is built around.
+ * @param secondWord   The word that has to be near it.
+ * @param maxDistance  How far apart the words can be, 1 meaning next to
+ *                     each other.
+ * @param contextWords The number of words of context to provide on each
+ *                     side of the hit.
+ * @return One context string for each hit, in text order.
+ */
+public String[] searchNear(String firstWord, String secondWord,
+                           int maxDistance, int contextWords) {
+    if (maxDistance < 1) {
+        throw new IllegalArgumentException("Distance below 1: " + maxDistance);
+    }
+    long started = System.nanoTime();
+    String[] hits;
+    enter();
+    try {
+        IndexSnapshot snapshot = this.snapshot;
+        int[][] positions = snapshot.positions(new String[] {
+                analyzer.normalize(firstWord), analyzer.normalize(secondWord) });
+        int[][] spans = Positions.near(positions[0], positions[1], maxDistance);
+        hits = snapshot.contexts(spans[0], spans[1], Math.max(0, contextWords));
+    } finally {
+        exit();
+    }
+    reportSearch(SearchMetrics.Query.NEAR, started, hits.length);
+    return hits;
+}
+
+/**
+ * Searches for every word matching a pattern, where '*' stands for any
+ * number of chars and '?' for exactly one, like "natur*" or "spec?es". Case
+ * and trailing punctuation are ignored, like for single words. Matching words
+ * are found in the sorted dictionary from the chars before the first
+ * wildcard, so a pattern starting with one looks at every distinct word.
+ *
+ * @param pattern      The pattern words have to match.
+ * @param contextWords The number of words of context to provide on each
+ *                     side of the word.
+ * @return One context string for each time any matching word appears in the
+ * file, in text order. With no context, the word as it appears in the file.
+ */
+public String[] searchPattern(String pattern, int contextWords) {
+    long started = System.nanoTime();
+    String[] hits;
+    enter();
+    try {
+        IndexSnapshot snapshot = this.snapshot;
+        int[] ids = snapshot.terms().matching(analyzer.normalizePattern(pattern));
+        hits = contextsOfAny(snapshot, ids, contextWords);
+    } finally {
+        exit();
+    }
+    reportSearch(SearchMetrics.Query.PATTERN, started, hits.length);
+    return hits;
+}
+
+/**
+ * Searches for every word at most maxEdits typos away from the given one,
+ * a typo being a char inserted, deleted or replaced. Case and trailing
+ * punctuation are ignored, like for single words.
+ *
+ * @param queryWord    The word to search for.
+ * @param maxEdits     How many typos a word can have, usually 1 or 2. Each
+ *                     more one makes the search look at many more words.
+ * @param contextWords The number of words of context to provide on each
+ *                     side of the word.
+ * @return One context string for each time any such word appears in the
+ * file, in text order. With no context, the word as it appears in the file.
+ */
+public String[] searchFuzzy(String queryWord, int maxEdits, int contextWords) {
+    if (maxEdits < 0) {
+        throw new IllegalArgumentException("Negative edit count: " + maxEdits);
     }
-    // Fetch the words from the position and context postions
-    List<String> strings = (contextWords > 0) ? positions.stream().map(pos ->
-            IntStream.rangeClosed(pos - contextWords, pos + contextWords).mapToObj
-                    (p -> p >= 0 && p < words.size() ?
-                            words.get(p) : "").collect(Collectors.joining(" "))
-    ).map(word -> word.trim().replaceAll(",$", ""))
-            .collect(Collectors.toList()) :
-            IntStream.range(0, positions.size()).mapToObj(x -> queryWord).collect
-                    (Collectors.toList());
-    // Convert it to an array and return.
-    return strings.toArray(new String[0]);
+    long started = System.nanoTime();
+    String[] hits;
+    enter();
+    try {
+        IndexSnapshot snapshot = this.snapshot;
+        int[] ids = snapshot.terms().similar(analyzer.normalize(queryWord),
+                maxEdits);
+        hits = contextsOfAny(snapshot, ids, contextWords);
+    } finally {
+        exit();
+    }
+    reportSearch(SearchMetrics.Query.FUZZY, started, hits.length);
+    return hits;
+}
+
+/**
+ * Searches for the passages that best match a query of several words,
+ * ranked with BM25: passages with more of the words, and with rarer ones,
+ * come first. Passages are runs of 50 words, see
+ * {@link #searchRanked(String, int, int)}. Case and punctuation are ignored,
+ * like for single words, and the order of the words does not matter.
+ *
+ * @param query The words to search for.
+ * @param k     The number of passages to return at most.
+ * @return The text of the best k passages, best first.
+ */
+public String[] searchRanked(String query, int k) {
+    return searchRanked(query, k, RankedSearch.PASSAGE_WORDS);
+}
+
+/**
+ * Same as {@link #searchRanked(String, int)}, with passages of the given
+ * number of words. The top k are found without scoring every passage that
+ * has one of the words: once k passages are found, passages that only have
+ * words too common to beat them are passed over, so the time depends more
+ * on the rarer words of the query than on the size of the text.
+ *
+ * @param passageWords The number of words in a passage.
+ */
+public String[] searchRanked(String query, int k, int passageWords) {
+    if (passageWords <= 0) {
+        throw new IllegalArgumentException("Passages need words: "
+                + passageWords);
+    }
+    long started = System.nanoTime();
+    String[] hits;
+    enter();
+    try {
+        hits = ranked(query, k, passageWords);
+    } finally {
+        exit();
+    }
+    reportSearch(SearchMetrics.Query.RANKED, started, hits.length);
+    return hits;
+}
+
+private String[] ranked(String query, int k, int passageWords) {
+    IndexSnapshot snapshot = this.snapshot;
+    String[] terms = new LinkedHashSet<>(Arrays.asList(analyzer.terms(query)))
+            .toArray(new String[0]);
+    int[][] spans = RankedSearch.top(snapshot, terms, k, passageWords);
+    // Contexts are cut in text order.
+    Integer[] order = new Integer[spans[0].length];
+    for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingInt(i -> spans[0][i]));
+    int[] firsts = new int[order.length];
+    int[] lasts = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+        firsts[i] = spans[0][order[i]];
+        lasts[i] = spans[1][order[i]];
+    }
+    String[] contexts = snapshot.contexts(firsts, lasts, 0);
+    String[] hits = new String[order.length];
+    for (int i = 0; i < order.length; i++) {
+        hits[order[i]] = contexts[i];
+    }
+    return hits;
+}
+
+private static String[] contextsOfAny(IndexSnapshot snapshot, int[] ids,
+                                      int contextWords) {
+    int[] positions = snapshot.positionsOfAny(ids);
+    return snapshot.contexts(positions, positions, Math.max(0, contextWords));
+}
+
+// Normalized terms of the words of a phrase.
+private String[] phraseTerms(String phrase) {
+    return analyzer.terms(phrase);
+}
+
+/**
+ * Ratio between the heap used by the index and the size of the text it was
+ * built from. Useful to keep an eye on index overhead.
+ *
+ * @return index bytes per corpus byte (a char of a String counts as one).
+ */
+public double indexBytesPerCorpusByte() {
+    ensureOpen();
+    IndexSnapshot snapshot = this.snapshot;
+    long length = snapshot.text().length();
+    return length == 0 ? 0 : (double) snapshot.sizeInBytes() / length;
 }
 
 // Any needed utility classes can just go in this file
 
+// A segment as scanned by a thread, before its terms have ids.
+static final class ScannedSegment {
+    private final PostingsIndex.Builder postings;
+    private final int threadPosition;
+    private final long textStart;
+    private final TokenOffsets offsets;
+
+    ScannedSegment(PostingsIndex.Builder postings, int threadPosition,
+                   long textStart, TokenOffsets offsets) {
+        this.postings = postings;
+        this.threadPosition = threadPosition;
+        this.textStart = textStart;
+        this.offsets = offsets;
+    }
+
+    CallableResult build(TermDictionary terms) {
+        return new CallableResult(postings.build(terms), threadPosition,
+                textStart, offsets);
+    }
+}
+
 //The result returned by each thread.
-class CallableResult {
-    // <Lower cased words with special characters removed to seach easily ,
-    //          Position in the words derived from the given set of characters>
-    private final Map<String, Set<Integer>> stringPosition;
-    // Words as is, dervied from the given string
-    private final List<String> words;
+static class CallableResult {
+    // Ids of the lower cased words with special characters removed to
+    // seach easily, mapped to their positions in the words derived from the
+    // segment.
+    private final PostingsIndex postings;
+    // Where each token of the segment starts and ends, relative to textStart
+    private final TokenOffsets offsets;
     private final int threadPosition;
+    // Position in the text where the segment starts
+    private final long textStart;
 
-    CallableResult(Map<String, Set<Integer>> stringPosition, int threadPosition,
-                   List<String> words) {
-        this.stringPosition = stringPosition;
+    // Number of tokens that belong to the segment. The last one of the
+    // offsets is left out once an append carried it on into a new segment.
+    private final int tokenCount;
+
+    CallableResult(PostingsIndex postings, int threadPosition, long textStart,
+                   TokenOffsets offsets) {
+        this(postings, threadPosition, textStart, offsets, offsets.size());
+    }
+
+    CallableResult(PostingsIndex postings, int threadPosition, long textStart,
+                   TokenOffsets offsets, int tokenCount) {
+        this.postings = postings;
         this.threadPosition = threadPosition;
-        this.words = words;
+        this.textStart = textStart;
+        this.offsets = offsets;
+        this.tokenCount = tokenCount;
+    }
+
+    // The same segment, with its buffers moved out of the heap.
+    CallableResult offHeap(OffHeapMemory memory) {
+        PostingsIndex movedPostings = postings.offHeap(memory);
+        TokenOffsets movedOffsets = offsets.offHeap(memory);
+        if (movedPostings == postings && movedOffsets == offsets) {
+            return this;
+        }
+        return new CallableResult(movedPostings, threadPosition, textStart,
+                movedOffsets, tokenCount);
+    }
+
+    // The same segment, minus its last token.
+    CallableResult withoutLastToken() {
+        return new CallableResult(postings, threadPosition, textStart, offsets,
+                tokenCount - 1);
     }
 
-    Map<String, Set<Integer>> getStringPosition() {
-        return stringPosition;
+    PostingsIndex getPostings() {
+        return postings;
     }
 
     int getThreadPosition() {
         return threadPosition;
     }
 
-    public List<String> getWords() {
-        return words;
+    TokenOffsets getOffsets() {
+        return offsets;
+    }
+
+    long getTextStart() {
+        return textStart;
+    }
+
+    int getTokenCount() {
+        return tokenCount;
     }
 
 }
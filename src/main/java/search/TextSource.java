@@ -0,0 +1,593 @@
+package search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The text being searched. Positions are longs so that files larger than
+ * 2 GB can be addressed; what a position counts (chars or bytes) depends on
+ * the implementation, but it is the same unit for every method.
+ */
+interface TextSource {
+
+    /** Length of the text. */
+    long length();
+
+    /**
+     * Char at the given position, for scanning. Sources backed by an encoded
+     * file may report any char above ASCII as U+FFFD; they never report one
+     * as whitespace.
+     */
+    char charAt(long index);
+
+    /** The decoded text between start (inclusive) and end (exclusive). */
+    String substring(long start, long end);
+
+    /**
+     * Number of positions the given chars, decoded from this source, take up
+     * in it. Sources that hold chars count chars.
+     */
+    default long lengthOf(String chars) {
+        return chars.length();
+    }
+
+    /**
+     * A source to cut several substrings between start and end from, using
+     * the same positions as this one. Sources that have to copy the text
+     * before decoding it copy the whole region once.
+     */
+    default TextSource region(long start, long end) {
+        return this;
+    }
+
+    /**
+     * More text, held the way this source holds its text so that positions
+     * count the same unit, addressed from 0. See {@link #concat}.
+     */
+    default TextSource encode(CharSequence more) {
+        return new StringSource(more.toString());
+    }
+
+    static TextSource of(String text) {
+        return new StringSource(text);
+    }
+
+    /**
+     * Maps a file into memory. For charsets where every byte below 0x80 is
+     * the ASCII char itself (UTF-8, ISO-8859-*, windows-125x) the text is
+     * scanned straight out of the mapped pages and only decoded where a
+     * substring is asked for. Other charsets are decoded up front, which
+     * limits them to files of less than 2 GB.
+     */
+    static TextSource map(File file, Charset charset) throws IOException {
+        return map(file, charset, MappedSource.WINDOW_SIZE);
+    }
+
+    /** @param windowSize size of the mapped windows, a power of two. */
+    static TextSource map(File file, Charset charset, int windowSize)
+            throws IOException {
+        return map(file, charset, 0, -1, windowSize);
+    }
+
+    /**
+     * Maps the bytes of a file between from and to, for instance what was
+     * appended to it since it was last read. Positions count from from.
+     * Charsets that are decoded up front must not have a char cut in two at
+     * from or to.
+     */
+    static TextSource map(File file, Charset charset, long from, long to)
+            throws IOException {
+        return map(file, charset, from, to, MappedSource.WINDOW_SIZE);
+    }
+
+    // A negative to means the end of the file.
+    static TextSource map(File file, Charset charset, long from, long to,
+                          int windowSize) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long length = (to < 0 ? channel.size() : to) - from;
+            if (MappedSource.supports(charset)) {
+                return new MappedSource(channel, from, length, windowSize,
+                        charset);
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GB, which is"
+                        + " only supported for ASCII compatible charsets, not "
+                        + charset);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    from, length);
+            return new StringSource(charset.decode(buffer).toString());
+        }
+    }
+
+    /**
+     * The text of a followed by the text of b. Both have to count positions
+     * in the same unit, which {@link #encode} takes care of.
+     */
+    static TextSource concat(TextSource a, TextSource b) {
+        if (a.length() == 0) {
+            return b;
+        }
+        if (b.length() == 0) {
+            return a;
+        }
+        return Composite.of(a, b);
+    }
+
+    // Text already held in memory as a String.
+    final class StringSource implements TextSource {
+        private final String text;
+
+        StringSource(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public long length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(long index) {
+            return text.charAt((int) index);
+        }
+
+        @Override
+        public String substring(long start, long end) {
+            return text.substring((int) start, (int) end);
+        }
+    }
+
+    // A file mapped read only in fixed size windows. Positions are bytes.
+    final class MappedSource implements TextSource {
+        static final int WINDOW_SIZE = 1 << 30;
+
+        private final MappedByteBuffer[] windows;
+        private final long length;
+        private final int windowSize;
+        // windowSize is a power of two, so positions split with a shift.
+        private final int windowShift;
+        private final Charset charset;
+
+        // Maps length bytes of the file starting at offset, which becomes
+        // position 0.
+        MappedSource(FileChannel channel, long offset, long length,
+                     int windowSize, Charset charset) throws IOException {
+            if (Integer.bitCount(windowSize) != 1) {
+                throw new IllegalArgumentException("Window size must be a"
+                        + " power of two: " + windowSize);
+            }
+            this.length = length;
+            this.windowSize = windowSize;
+            this.windowShift = Integer.numberOfTrailingZeros(windowSize);
+            this.charset = charset;
+            windows = new MappedByteBuffer[(int) ((length + windowSize - 1)
+                    / windowSize)];
+            for (int i = 0; i < windows.length; i++) {
+                long position = (long) i * windowSize;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        offset + position, Math.min(windowSize,
+                                length - position));
+            }
+        }
+
+        static boolean supports(Charset charset) {
+            String name = charset.name();
+            return charset.equals(StandardCharsets.UTF_8)
+                    || charset.equals(StandardCharsets.US_ASCII)
+                    || name.startsWith("ISO-8859-")
+                    || name.startsWith("windows-125");
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(long index) {
+            byte b = windows[(int) (index >>> windowShift)]
+                    .get((int) index & (windowSize - 1));
+            return b >= 0 ? (char) b : '\uFFFD';
+        }
+
+        @Override
+        public String substring(long start, long end) {
+            return new String(substringBytes(start, end), charset);
+        }
+
+        private byte[] substringBytes(long start, long end) {
+            byte[] bytes = new byte[(int) (end - start)];
+            int copied = 0;
+            while (copied < bytes.length) {
+                long position = start + copied;
+                int window = (int) (position >>> windowShift);
+                int offset = (int) position & (windowSize - 1);
+                int count = Math.min(bytes.length - copied,
+                        windows[window].limit() - offset);
+                // duplicate() so concurrent readers don't share a position.
+                ByteBuffer view = windows[window].duplicate();
+                view.position(offset);
+                view.get(bytes, copied, count);
+                copied += count;
+            }
+            return bytes;
+        }
+
+        @Override
+        public long lengthOf(String chars) {
+            return chars.getBytes(charset).length;
+        }
+
+        @Override
+        public TextSource region(long start, long end) {
+            return new Region(start, substringBytes(start, end), charset);
+        }
+
+        @Override
+        public TextSource encode(CharSequence more) {
+            return new Region(0, more.toString().getBytes(charset), charset);
+        }
+    }
+
+    // A copy of part of a MappedSource, still addressed by file position, so
+    // its length is the position of its end.
+    final class Region implements TextSource {
+        private final long start;
+        private final byte[] bytes;
+        private final Charset charset;
+
+        Region(long start, byte[] bytes, Charset charset) {
+            this.start = start;
+            this.bytes = bytes;
+            this.charset = charset;
+        }
+
+        @Override
+        public long length() {
+            return start + bytes.length;
+        }
+
+        @Override
+        public char charAt(long index) {
+            byte b = bytes[(int) (index - start)];
+            return b >= 0 ? (char) b : '\uFFFD';
+        }
+
+        @Override
+        public String substring(long start, long end) {
+            return new String(bytes, (int) (start - this.start),
+                    (int) (end - start), charset);
+        }
+
+        @Override
+        public long lengthOf(String chars) {
+            return chars.getBytes(charset).length;
+        }
+
+        @Override
+        public TextSource encode(CharSequence more) {
+            return new Region(0, more.toString().getBytes(charset), charset);
+        }
+    }
+
+    // Chars appended to each other. Texts made by appending to the latest
+    // of them share its array: each only reads its own first length chars,
+    // so an append writes past them in place. The array is only copied to
+    // double it, or when an older text is appended to again.
+    final class CharRun implements TextSource {
+        private final Fill fill;
+        private final char[] chars;
+        private final int length;
+
+        CharRun(String text) {
+            this(new Fill(text.length()), text.toCharArray(), text.length());
+        }
+
+        private CharRun(Fill fill, char[] chars, int length) {
+            this.fill = fill;
+            this.chars = chars;
+            this.length = length;
+        }
+
+        CharRun append(String more) {
+            synchronized (fill) {
+                int newLength = length + more.length();
+                char[] target = chars;
+                Fill targetFill = fill;
+                if (fill.value != length || newLength > chars.length) {
+                    target = Arrays.copyOf(chars,
+                            Math.max(newLength, 2 * length));
+                    if (fill.value != length) {
+                        targetFill = new Fill(length);
+                    }
+                }
+                more.getChars(0, more.length(), target, length);
+                targetFill.value = newLength;
+                return new CharRun(targetFill, target, newLength);
+            }
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(long index) {
+            return chars[(int) index];
+        }
+
+        @Override
+        public String substring(long start, long end) {
+            return new String(chars, (int) start, (int) (end - start));
+        }
+    }
+
+    // Encoded bytes appended to each other, the way CharRun does with chars.
+    final class ByteRun implements TextSource {
+        private final Fill fill;
+        private final byte[] bytes;
+        private final int length;
+        private final Charset charset;
+
+        ByteRun(byte[] bytes, Charset charset) {
+            this(new Fill(bytes.length), bytes, bytes.length, charset);
+        }
+
+        private ByteRun(Fill fill, byte[] bytes, int length, Charset charset) {
+            this.fill = fill;
+            this.bytes = bytes;
+            this.length = length;
+            this.charset = charset;
+        }
+
+        ByteRun append(byte[] more) {
+            synchronized (fill) {
+                int newLength = length + more.length;
+                byte[] target = bytes;
+                Fill targetFill = fill;
+                if (fill.value != length || newLength > bytes.length) {
+                    target = Arrays.copyOf(bytes,
+                            Math.max(newLength, 2 * length));
+                    if (fill.value != length) {
+                        targetFill = new Fill(length);
+                    }
+                }
+                System.arraycopy(more, 0, target, length, more.length);
+                targetFill.value = newLength;
+                return new ByteRun(targetFill, target, newLength, charset);
+            }
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(long index) {
+            byte b = bytes[(int) index];
+            return b >= 0 ? (char) b : '\uFFFD';
+        }
+
+        @Override
+        public String substring(long start, long end) {
+            return new String(bytes, (int) start, (int) (end - start), charset);
+        }
+
+        @Override
+        public long lengthOf(String chars) {
+            return chars.getBytes(charset).length;
+        }
+
+        @Override
+        public TextSource encode(CharSequence more) {
+            return new Region(0, more.toString().getBytes(charset), charset);
+        }
+    }
+
+    // How much of an array shared by appended texts is written, so that only
+    // the latest of them appends in place. Held while appending.
+    final class Fill {
+        private int value;
+
+        Fill(int value) {
+            this.value = value;
+        }
+    }
+
+    // Sources one after the other, as one text. Built by appending, so
+    // scanning usually reads the last part, which is checked first.
+    final class Composite implements TextSource {
+        // Small parts are appended to a run rather than chained, until the
+        // run is this long.
+        static final int SMALL_PART = 1 << 20;
+
+        // The parts before the last one and where they start, shared by
+        // appended texts the way runs share their arrays: only the first
+        // count are this text's. starts[count] is where last starts.
+        private final Fill fill;
+        private final TextSource[] parts;
+        private final long[] starts;
+        private final int count;
+        private final TextSource last;
+        private final long length;
+
+        private Composite(Fill fill, TextSource[] parts, long[] starts,
+                          int count, TextSource last) {
+            this.fill = fill;
+            this.parts = parts;
+            this.starts = starts;
+            this.count = count;
+            this.last = last;
+            length = starts[count] + last.length();
+        }
+
+        static Composite of(TextSource a, TextSource b) {
+            Composite composite = a instanceof Composite ? (Composite) a
+                    : new Composite(new Fill(0), new TextSource[0],
+                    new long[1], 0, a);
+            return composite.append(b);
+        }
+
+        // This text followed by b, appended to the last part if both are
+        // small, so that an append costs about the length of b.
+        private Composite append(TextSource b) {
+            if (last.length() + b.length() <= SMALL_PART) {
+                TextSource run = appendSmall(last, b);
+                if (run != null) {
+                    return new Composite(fill, parts, starts, count, run);
+                }
+            }
+            synchronized (fill) {
+                TextSource[] targetParts = parts;
+                long[] targetStarts = starts;
+                Fill targetFill = fill;
+                if (fill.value != count || count == parts.length) {
+                    targetParts = Arrays.copyOf(parts,
+                            Math.max(8, 2 * count));
+                    targetStarts = Arrays.copyOf(starts,
+                            targetParts.length + 1);
+                    if (fill.value != count) {
+                        targetFill = new Fill(count);
+                    }
+                }
+                targetParts[count] = last;
+                targetStarts[count + 1] = starts[count] + last.length();
+                targetFill.value = count + 1;
+                return new Composite(targetFill, targetParts, targetStarts,
+                        count + 1, b);
+            }
+        }
+
+        // A run of a followed by b, or null if they are not held the same
+        // way. A small mapped part is copied, so its mapping can go.
+        private static TextSource appendSmall(TextSource a, TextSource b) {
+            if (b instanceof StringSource || b instanceof CharRun) {
+                String more = b.substring(0, b.length());
+                if (a instanceof CharRun) {
+                    return ((CharRun) a).append(more);
+                }
+                if (a instanceof StringSource) {
+                    return new CharRun(a.substring(0, a.length())).append(more);
+                }
+                return null;
+            }
+            Charset charset = charsetOf(b);
+            if (charset == null || !charset.equals(charsetOf(a))) {
+                return null;
+            }
+            ByteRun run = a instanceof ByteRun ? (ByteRun) a
+                    : new ByteRun(bytesOf(a), charset);
+            return run.append(bytesOf(b));
+        }
+
+        // Charset of sources holding encoded bytes from 0 on, or null.
+        private static Charset charsetOf(TextSource source) {
+            if (source instanceof ByteRun) {
+                return ((ByteRun) source).charset;
+            }
+            if (source instanceof MappedSource) {
+                return ((MappedSource) source).charset;
+            }
+            if (source instanceof Region && ((Region) source).start == 0) {
+                return ((Region) source).charset;
+            }
+            return null;
+        }
+
+        private static byte[] bytesOf(TextSource source) {
+            if (source instanceof ByteRun) {
+                ByteRun run = (ByteRun) source;
+                return Arrays.copyOf(run.bytes, run.length);
+            }
+            if (source instanceof MappedSource) {
+                return ((MappedSource) source)
+                        .substringBytes(0, source.length());
+            }
+            return ((Region) source).bytes;
+        }
+
+        /** Number of parts, for tests. */
+        int partCount() {
+            return count + 1;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(long index) {
+            if (index >= starts[count]) {
+                return last.charAt(index - starts[count]);
+            }
+            int part = partOf(index);
+            return parts[part].charAt(index - starts[part]);
+        }
+
+        @Override
+        public String substring(long start, long end) {
+            int part = partOf(start);
+            if (end <= start(part + 1)) {
+                return part(part).substring(start - starts[part],
+                        end - starts[part]);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (; part <= count && starts[part] < end; part++) {
+                builder.append(part(part).substring(
+                        Math.max(start, starts[part]) - starts[part],
+                        Math.min(end, start(part + 1)) - starts[part]));
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public long lengthOf(String chars) {
+            // Parts all count the same unit.
+            return last.lengthOf(chars);
+        }
+
+        @Override
+        public TextSource encode(CharSequence more) {
+            return last.encode(more);
+        }
+
+        private TextSource part(int part) {
+            return part == count ? last : parts[part];
+        }
+
+        // Where a part starts, or the length after the last one.
+        private long start(int part) {
+            return part > count ? length : starts[part];
+        }
+
+        // Index of the part holding position index, count for the last.
+        private int partOf(long index) {
+            if (index >= starts[count]) {
+                return count;
+            }
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (starts[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -15,6 +15,11 @@ import java.util.regex.Pattern;
  * 
  * To learn what regular expression syntax is supported by the Java platform,
  * see the documentation for java.util.regex.Pattern.
+ * 
+ * Created without a regular expression, words are those of the standard
+ * {@link Analyzer}: letters and digits, with single apostrophes inside a
+ * word. They are the words TextSearcher indexes by default, found with the
+ * same DFA.
  */
 public class TextTokenizer implements Iterator<String> {
 
@@ -24,6 +29,8 @@ public class TextTokenizer implements Iterator<String> {
 	private int prevWordEnd;
 	private String nextPunctuation;
 	private String nextWord;
+	// Whether words are found by the scanner table instead of the matcher.
+	private boolean scanning;
 	
 	/**
 	 * Initializes the tokenizer with an input string and a regular expression
@@ -39,6 +46,17 @@ public class TextTokenizer implements Iterator<String> {
 		this.matcher = wordPattern.matcher(input);
 	}
 	
+	/**
+	 * Initializes the tokenizer with an input string, using the words of the
+	 * standard Analyzer. No regular expression is involved.
+	 * 
+	 * @param input
+	 */
+	public TextTokenizer(String input) {
+		this.input = input;
+		this.scanning = true;
+	}
+	
 	/** Returns true if more tokens are available, i.e. if end-of-file has
 	 *  not been reached.
 	 */
@@ -78,10 +96,17 @@ public class TextTokenizer implements Iterator<String> {
 	 * returns false.
 	 */
 	public boolean isWord(String s) {
+		if (scanning) {
+			return s.length() > 0 && WordDfa.wordEnd(s, 0) == s.length();
+		}
 		return wordPattern.matcher(s).matches();
 	}
 	
 	private void retrieveNext() {
+		if (scanning) {
+			scanNext();
+			return;
+		}
 		if (matcher == null) return;
 		if (matcher.find()) {
 			int wordStart = matcher.start();
@@ -102,5 +127,24 @@ public class TextTokenizer implements Iterator<String> {
 			matcher = null;
 		}
 	}
+	
+	private void scanNext() {
+		int length = input.length();
+		int wordStart = prevWordEnd;
+		int wordEnd = wordStart;
+		while (wordStart < length && (wordEnd = WordDfa.wordEnd(input, wordStart)) == wordStart) {
+			wordStart++;
+		}
+		if (wordStart > prevWordEnd) {
+			nextPunctuation = input.substring(prevWordEnd,wordStart);
+		}
+		if (wordStart < length) {
+			nextWord = input.substring(wordStart,wordEnd);
+			prevWordEnd = wordEnd;
+		}
+		else {
+			prevWordEnd = length;
+		}
+	}
 
 }
@@ -0,0 +1,157 @@
+package search;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Start and end offsets of the tokens of one segment, in token order.
+ * Offsets point into the original text, so a run of tokens can be turned
+ * back into text with a single substring, keeping the original spacing.
+ * <p>
+ * Tokens are stored in blocks of {@link #BLOCK}. A block keeps the start of
+ * its first token, then the start of each token from there and the length
+ * of each token, bit packed with as many bits as the largest of each needs,
+ * see {@link BitPacking}. Any offset can still be read without decoding
+ * the others, in about two bytes a token instead of eight.
+ * <p>
+ * Everything lives in a single little endian buffer, on the heap or a
+ * mapped region of an index file, laid out as:
+ * <pre>
+ *   int size
+ *   int[blocks * 3]    for each block: start of its first token, where its
+ *                      data starts, and bits of starts | bits of lengths &lt;&lt; 8
+ *   data of each block: packed starts, then packed lengths
+ * </pre>
+ */
+final class TokenOffsets {
+
+    /** Tokens per packed block. */
+    static final int BLOCK = 128;
+
+    private final ByteBuffer offsets;
+    private final int size;
+
+    private TokenOffsets(ByteBuffer offsets) {
+        this.offsets = offsets;
+        this.size = offsets.getInt(0);
+    }
+
+    /** Reads offsets from a buffer produced by {@link #buffer()}. */
+    static TokenOffsets wrap(ByteBuffer buffer) {
+        return new TokenOffsets(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /** All the offsets, ready to be written out. */
+    ByteBuffer buffer() {
+        return offsets.duplicate();
+    }
+
+    /** These offsets, with their buffer moved out of the heap if it is not yet. */
+    TokenOffsets offHeap(OffHeapMemory memory) {
+        ByteBuffer moved = memory.copy(offsets);
+        return moved == offsets ? this : new TokenOffsets(moved);
+    }
+
+    /** Number of tokens. */
+    int size() {
+        return size;
+    }
+
+    /** Offset of the first char of the token. */
+    int start(int token) {
+        int block = 4 + 12 * (token / BLOCK);
+        return offsets.getInt(block) + BitPacking.get(offsets,
+                offsets.getInt(block + 4), offsets.getInt(block + 8) & 0xFF,
+                token % BLOCK);
+    }
+
+    /** Offset just past the last char of the token. */
+    int end(int token) {
+        int block = 4 + 12 * (token / BLOCK);
+        int data = offsets.getInt(block + 4);
+        int bits = offsets.getInt(block + 8);
+        int tokens = Math.min(BLOCK, size - token / BLOCK * BLOCK);
+        return start(token) + BitPacking.get(offsets,
+                data + BitPacking.bytes(tokens, bits & 0xFF), bits >>> 8,
+                token % BLOCK);
+    }
+
+    /**
+     * The offsets of consecutive segments as those of a single segment: the
+     * first counts[i] tokens of part i, moved by shifts[i].
+     */
+    static TokenOffsets concat(TokenOffsets[] parts, int[] shifts, int[] counts) {
+        Builder builder = new Builder();
+        for (int i = 0; i < parts.length; i++) {
+            for (int token = 0; token < counts[i]; token++) {
+                builder.add(parts[i].start(token) + shifts[i],
+                        parts[i].end(token) + shifts[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    /** Size in bytes. */
+    long sizeInBytes() {
+        return offsets.capacity();
+    }
+
+    static final class Builder {
+        private int[] offsets = new int[64];
+        private int size;
+
+        /** Appends a token. Tokens must be added in text order. */
+        void add(int start, int end) {
+            if (2 * size + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[2 * size] = start;
+            offsets[2 * size + 1] = end;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        TokenOffsets build() {
+            int blocks = (size + BLOCK - 1) / BLOCK;
+            int header = 4 + 12 * blocks;
+            int[] values = new int[2 * BLOCK];
+            int[] blockHeaders = new int[3 * blocks];
+            byte[] data = new byte[8 * size + 16 * blocks];
+            int length = 0;
+            for (int b = 0; b < blocks; b++) {
+                int first = b * BLOCK;
+                int tokens = Math.min(BLOCK, size - first);
+                int base = offsets[2 * first];
+                int maxStart = 0;
+                int maxLength = 0;
+                for (int i = 0; i < tokens; i++) {
+                    int start = offsets[2 * (first + i)];
+                    values[i] = start - base;
+                    values[BLOCK + i] = offsets[2 * (first + i) + 1] - start;
+                    maxStart = Math.max(maxStart, values[i]);
+                    maxLength = Math.max(maxLength, values[BLOCK + i]);
+                }
+                int startBits = BitPacking.bits(maxStart);
+                int lengthBits = BitPacking.bits(maxLength);
+                blockHeaders[3 * b] = base;
+                blockHeaders[3 * b + 1] = header + length;
+                blockHeaders[3 * b + 2] = startBits | lengthBits << 8;
+                length += BitPacking.pack(values, 0, tokens, startBits, data, length);
+                length += BitPacking.pack(values, BLOCK, tokens, lengthBits, data,
+                        length);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(header + length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(size);
+            buffer.asIntBuffer().put(blockHeaders);
+            buffer.position(header);
+            buffer.put(data, 0, length);
+            buffer.flip();
+            return new TokenOffsets(buffer);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package search;
+
+import java.util.Arrays;
+
+/**
+ * Scanner for the standard definition of a word: letters and digits, with
+ * single apostrophes inside a word, so that "animal's" is one word while
+ * "1844--honoured" and "[xxxxx10x.xxx]" are two. It matches what the regular
+ * expression [\p{L}\p{N}]+('[\p{L}\p{N}]+)* would, compiled by hand into a
+ * DFA of three states over three char classes, so each char costs two table
+ * lookups. Words are lower cased and hashed as they are read, like
+ * {@link WordScanner} does.
+ */
+final class WordDfa {
+
+    // Char classes.
+    private static final int OTHER = 0;
+    private static final int LETTER = 1;
+    private static final int APOSTROPHE = 2;
+
+    // States.
+    private static final int OUTSIDE = 0;
+    private static final int IN_WORD = 1;
+    private static final int AFTER_APOSTROPHE = 2;
+
+    // Next state, at state * 3 + class.
+    private static final byte[] NEXT = {
+            // OUTSIDE:          other, letter, apostrophe
+            OUTSIDE, IN_WORD, OUTSIDE,
+            // IN_WORD
+            OUTSIDE, IN_WORD, AFTER_APOSTROPHE,
+            // AFTER_APOSTROPHE: a second apostrophe ends the word
+            OUTSIDE, IN_WORD, OUTSIDE };
+
+    // Class of every ASCII char.
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isLetterOrDigit(c)) {
+                CLASSES[c] = LETTER;
+            }
+        }
+        CLASSES['\''] = APOSTROPHE;
+    }
+
+    private char[] term = new char[32];
+
+    // Chars of byte backed sources above ASCII are U+FFFD, which is taken
+    // for a letter and the word decoded.
+    private static int classOf(char c) {
+        if (c < 128) {
+            return CLASSES[c];
+        }
+        return Character.isLetterOrDigit(c) || Character.isSurrogate(c)
+                || c == '\uFFFD' ? LETTER : OTHER;
+    }
+
+    /** Whether a char can be part of a word. */
+    static boolean isWordChar(char c) {
+        return classOf(c) != OTHER;
+    }
+
+    /**
+     * End of the word starting at start in s, or start if none starts there.
+     */
+    static int wordEnd(String s, int start) {
+        int state = OUTSIDE;
+        int end = start;
+        for (int i = start; i < s.length(); i++) {
+            state = NEXT[state * 3 + classOf(s.charAt(i))];
+            if (state == OUTSIDE) {
+                break;
+            }
+            if (state == IN_WORD) {
+                end = i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Scans text between start and end, passing every word to the sink. A
+     * scanner instance is not thread safe, but can be reused.
+     */
+    void scan(TextSource text, long start, long end, WordScanner.TokenSink sink) {
+        scan(text, start, end, sink, false);
+    }
+
+    // Exact scans take U+FFFD for what it is.
+    private void scan(TextSource text, long start, long end,
+                      WordScanner.TokenSink sink, boolean exact) {
+        long i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (classOf(c) != LETTER) {
+                i++;
+                continue;
+            }
+            long tokenStart = i;
+            int length = 0;
+            int hash = 0;
+            // The word so far, up to its last letter.
+            long wordEnd = i;
+            int wordLength = 0;
+            int wordHash = 0;
+            boolean decode = false;
+            int state = OUTSIDE;
+            while (i < end) {
+                c = text.charAt(i);
+                state = NEXT[state * 3 + classOf(c)];
+                if (state == OUTSIDE) {
+                    break;
+                }
+                decode |= !exact && c == '\uFFFD';
+                if (length == term.length) {
+                    term = Arrays.copyOf(term, length * 2);
+                }
+                char lower = WordScanner.toLowerCase(c);
+                term[length++] = lower;
+                hash = 31 * hash + lower;
+                i++;
+                if (state == IN_WORD) {
+                    wordEnd = i;
+                    wordLength = length;
+                    wordHash = hash;
+                }
+            }
+            if (decode) {
+                scanDecoded(text, tokenStart, wordEnd, sink);
+            } else {
+                sink.token(tokenStart, wordEnd, term, wordLength, wordHash);
+            }
+            // A trailing apostrophe is looked at again, and skipped.
+            i = wordEnd;
+        }
+    }
+
+    // Scans the decoded chars of a run that has chars above ASCII, which may
+    // be letters or not, and maps the words found back to positions.
+    private void scanDecoded(TextSource text, long start, long end,
+                             WordScanner.TokenSink sink) {
+        String decoded = text.substring(start, end);
+        DecodedRun run = new DecodedRun(text, decoded, start);
+        scan(TextSource.of(decoded), 0, decoded.length(),
+                (wordStart, wordEnd, term, termLength, hash) -> sink.token(
+                        run.position((int) wordStart), run.position((int) wordEnd),
+                        term, termLength, hash), true);
+    }
+
+    /**
+     * Maps offsets in chars decoded from a source back to positions in the
+     * source, for offsets in increasing order.
+     */
+    static final class DecodedRun {
+        private final TextSource text;
+        private final String decoded;
+        private int chars;
+        private long position;
+
+        DecodedRun(TextSource text, String decoded, long start) {
+            this.text = text;
+            this.decoded = decoded;
+            this.position = start;
+        }
+
+        long position(int offset) {
+            position += text.lengthOf(decoded.substring(chars, offset));
+            chars = offset;
+            return position;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package search;
+
+import java.util.Arrays;
+
+/**
+ * Single pass, table driven scanner that splits text into whitespace
+ * separated tokens and normalizes them for the index, for
+ * {@link Analyzer#whitespace()}. Also holds the char classes the rest of
+ * the index splits text with.
+ * <p>
+ * Normalizing a token means stripping trailing ASCII punctuation and lower
+ * casing it char by char. The normalized form is written into a reusable
+ * buffer together with its hash, which is the same value String.hashCode()
+ * would return for it, so a term that is already known can be found without
+ * creating a String.
+ */
+final class WordScanner {
+
+    static final byte WORD = 0;
+    static final byte WHITESPACE = 1;
+    static final byte PUNCTUATION = 2;
+
+    // Class of every ASCII char. Matches Character.isWhitespace and \p{Punct}.
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) {
+                CLASSES[c] = WHITESPACE;
+            } else if ("!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~".indexOf(c) >= 0) {
+                CLASSES[c] = PUNCTUATION;
+            }
+        }
+    }
+
+    /** Receives the tokens found by {@link #scan}. */
+    interface TokenSink {
+        /**
+         * @param start      offset of the first char of the token.
+         * @param end        offset just past the token.
+         * @param term       buffer holding the normalized token, only valid
+         *                   during the call.
+         * @param termLength length of the normalized token.
+         * @param hash       hash of the normalized token.
+         */
+        void token(long start, long end, char[] term, int termLength, int hash);
+    }
+
+    private char[] term = new char[32];
+
+    static byte classOf(char c) {
+        if (c < 128) {
+            return CLASSES[c];
+        }
+        return Character.isWhitespace(c) ? WHITESPACE : WORD;
+    }
+
+    static boolean isWhitespace(char c) {
+        return classOf(c) == WHITESPACE;
+    }
+
+    /**
+     * Normalizes a single word the same way the scanner normalizes tokens.
+     */
+    static String normalize(String word) {
+        int end = word.length();
+        while (end > 0 && classOf(word.charAt(end - 1)) == PUNCTUATION) {
+            end--;
+        }
+        char[] chars = new char[end];
+        for (int i = 0; i < end; i++) {
+            chars[i] = toLowerCase(word.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Normalizes a pattern like a word, keeping the wildcards '*' and '?'
+     * that would otherwise go as trailing punctuation.
+     */
+    static String normalizePattern(String pattern) {
+        int end = pattern.length();
+        while (end > 0 && classOf(pattern.charAt(end - 1)) == PUNCTUATION
+                && pattern.charAt(end - 1) != '*' && pattern.charAt(end - 1) != '?') {
+            end--;
+        }
+        char[] chars = new char[end];
+        for (int i = 0; i < end; i++) {
+            chars[i] = toLowerCase(pattern.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    static char toLowerCase(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * Scans text between start and end, passing every token to the sink.
+     * Tokens are runs of non whitespace chars. A scanner instance is not
+     * thread safe, but can be reused.
+     */
+    void scan(TextSource text, long start, long end, TokenSink sink) {
+        long i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (classOf(c) == WHITESPACE) {
+                i++;
+                continue;
+            }
+            long tokenStart = i;
+            int length = 0;
+            // Length and hash up to the last char that is not punctuation.
+            int termLength = 0;
+            int termHash = 0;
+            int hash = 0;
+            boolean decode = false;
+            do {
+                byte cls = classOf(c);
+                if (cls == WHITESPACE) {
+                    break;
+                }
+                // Byte backed sources can't tell what a non ASCII char is.
+                decode |= c == '\uFFFD';
+                if (length == term.length) {
+                    term = Arrays.copyOf(term, length * 2);
+                }
+                char lower = toLowerCase(c);
+                term[length++] = lower;
+                hash = 31 * hash + lower;
+                if (cls != PUNCTUATION) {
+                    termLength = length;
+                    termHash = hash;
+                }
+                if (++i == end) {
+                    break;
+                }
+                c = text.charAt(i);
+            } while (true);
+            if (decode) {
+                String normalized = normalize(text.substring(tokenStart, i));
+                termLength = normalized.length();
+                if (termLength > term.length) {
+                    term = new char[termLength * 2];
+                }
+                normalized.getChars(0, termLength, term, 0);
+                termHash = normalized.hashCode();
+            }
+            sink.token(tokenStart, i, term, termLength, termHash);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Unit tests for Analyzer and the standard word DFA. */
+public class AnalyzerTest {
+
+	// Each word as "text:term", with a null term for dropped words.
+	private static List<String> scan(Analyzer analyzer, TextSource text) {
+		final List<String> words = new ArrayList<String>();
+		analyzer.scan(text, 0, text.length(), (start, end, term, termLength, hash) -> {
+			String normalized = termLength < 0 ? null : new String(term, 0, termLength);
+			if (normalized != null) {
+				Assert.assertEquals(normalized.hashCode(), hash);
+			}
+			words.add(text.substring(start, end) + ":" + normalized);
+		});
+		return words;
+	}
+
+	/** Standard words are letters and digits with apostrophes inside them. */
+	@Test
+	public void testStandardWords() throws Exception {
+		Assert.assertEquals(Arrays.asList("1844:1844", "Honoured:honoured", "xxxxx10x:xxxxx10x",
+				"xxx:xxx", "Animal's:animal's", "tis:tis", "plants:plants", "\u00c9t\u00e9:\u00e9t\u00e9"),
+				scan(Analyzer.standard(), TextSource.of(
+						"1844--Honoured [xxxxx10x.xxx] Animal's 'tis plants' \u00c9t\u00e9\u2014")));
+		Assert.assertEquals("species", Analyzer.standard().normalize("[SPECIES],"));
+		Assert.assertEquals("", Analyzer.standard().normalize("--"));
+		Assert.assertArrayEquals(new String[] { "origin", "of", "species" },
+				Analyzer.standard().terms("Origin of Species."));
+		Assert.assertEquals("natur*", Analyzer.standard().normalizePattern("(Natur*)."));
+	}
+
+	/** Chars above ASCII in a mapped file are decoded, and words keep their byte offsets. */
+	@Test
+	public void testMappedNonAscii() throws Exception {
+		File file = File.createTempFile("analyzer", ".txt");
+		file.deleteOnExit();
+		String text = "caf\u00e9\u2014cr\u00e8me \u201cna\u00efve\u201d x";
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		TextSource mapped = TextSource.map(file, StandardCharsets.UTF_8);
+		Assert.assertEquals(scan(Analyzer.standard(), TextSource.of(text)),
+				scan(Analyzer.standard(), mapped));
+		Assert.assertEquals(scan(Analyzer.builder().words("[\\p{L}]+").build(), TextSource.of(text)),
+				scan(Analyzer.builder().words("[\\p{L}]+").build(), mapped));
+	}
+
+	/** The whitespace analyzer keeps words whole and strips trailing punctuation. */
+	@Test
+	public void testWhitespaceWords() throws Exception {
+		Assert.assertEquals(Arrays.asList("1844--honoured:1844--honoured", "[xxx10x.xxx]:[xxx10x.xxx"),
+				scan(Analyzer.whitespace(), TextSource.of("1844--honoured [xxx10x.xxx]")));
+	}
+
+	/** Stop words are dropped but keep their place, other words are stemmed. */
+	@Test
+	public void testFilters() throws Exception {
+		Analyzer analyzer = Analyzer.builder().stopWords(Arrays.asList("The", "of"))
+				.stemmer("plural", Analyzer.PLURAL_STEMMER).build();
+		Assert.assertEquals(Arrays.asList("The:null", "origin:origin", "of:null",
+				"horses:horse", "flies:fly", "grass:grass"),
+				scan(analyzer, TextSource.of("The origin of horses, flies, grass")));
+		Assert.assertEquals("fly", analyzer.normalize("Flies"));
+
+		TextSearcher searcher = new TextSearcher(TextSource.of("The flies of the fly"), analyzer,
+				ForkJoinPool.commonPool(), 1 << 16);
+		TextSearcherTest.assertArraysEqual(new String[] { "The flies of the", "of the fly" },
+				searcher.search("fly", 2));
+		Assert.assertEquals(0, searcher.count("the"));
+
+		// Indexes are told apart by the name of the stemmer, not its class.
+		Assert.assertNotEquals(Analyzer.builder().stemmer("suffix s", suffix("s")).build().toString(),
+				Analyzer.builder().stemmer("suffix es", suffix("es")).build().toString());
+	}
+
+	/** Words that are their own singular, or end in "ie", are not stemmed to "y". */
+	@Test
+	public void testPluralStemmerExceptions() throws Exception {
+		UnaryOperator<String> stem = Analyzer.PLURAL_STEMMER;
+		Assert.assertEquals("species", stem.apply("species"));
+		Assert.assertEquals("series", stem.apply("series"));
+		Assert.assertEquals("tie", stem.apply("ties"));
+		Assert.assertEquals("pie", stem.apply("pies"));
+		Assert.assertEquals("fly", stem.apply("flies"));
+		Assert.assertEquals("story", stem.apply("stories"));
+	}
+
+	private static UnaryOperator<String> suffix(String suffix) {
+		return word -> word + suffix;
+	}
+
+	/** Searchers use the words of their analyzer, in the text and in queries. */
+	@Test
+	public void testSearcherAnalyzers() throws Exception {
+		String text = "my sketch of 1844--honoured me";
+		TextSearcher standard = new TextSearcher(TextSource.of(text),
+				ForkJoinPool.commonPool(), 1 << 16);
+		TextSearcherTest.assertArraysEqual(new String[] { "of 1844--honoured" },
+				standard.search("1844", 1));
+		TextSearcher whitespace = new TextSearcher(TextSource.of(text), Analyzer.whitespace(),
+				ForkJoinPool.commonPool(), 1 << 16);
+		Assert.assertEquals(0, whitespace.count("1844"));
+		TextSearcherTest.assertArraysEqual(new String[] { "of 1844--honoured me" },
+				whitespace.search("1844--HONOURED", 1));
+	}
+}
@@ -0,0 +1,94 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests searching a directory of files. */
+public class CorpusSearcherTest {
+
+	private static File directory;
+	private static File first;
+	private static File second;
+	private static File third;
+
+	@BeforeClass
+	public static void writeFiles() throws Exception {
+		directory = Files.createTempDirectory("corpus").toFile();
+		first = write("a.txt", "the quick fox jumps over the lazy dog");
+		second = write("b.txt", "no match here");
+		third = write("sub/c.txt", "The end of a story");
+	}
+
+	private static File write(String name, String text) throws Exception {
+		File file = new File(directory, name);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	@AfterClass
+	public static void deleteFiles() {
+		for (File file : new File[] { first, second, third, third.getParentFile(), directory }) {
+			file.delete();
+		}
+	}
+
+	/** Hits come in file order, then position order, tagged with both. */
+	@Test
+	public void testDocumentOrder() throws Exception {
+		CorpusSearcher searcher = new CorpusSearcher(directory, StandardCharsets.UTF_8);
+		Assert.assertEquals(Arrays.asList(first, second, third), searcher.getFiles());
+		List<Hit> hits = searcher.search("the", 1);
+		Assert.assertEquals(3, hits.size());
+		assertHit(first, 0, "the quick", hits.get(0));
+		assertHit(first, 5, "over the lazy", hits.get(1));
+		assertHit(third, 0, "The end", hits.get(2));
+		Assert.assertTrue(searcher.search("absent", 1).isEmpty());
+	}
+
+	/** A limit stops the search early, keeping the first hits. */
+	@Test
+	public void testLimit() throws Exception {
+		CorpusSearcher searcher = new CorpusSearcher(directory, StandardCharsets.UTF_8);
+		List<Hit> hits = searcher.search("the", 0, 2);
+		Assert.assertEquals(2, hits.size());
+		assertHit(first, 0, "the", hits.get(0));
+		assertHit(first, 5, "the", hits.get(1));
+		final List<Hit> streamed = new ArrayList<Hit>();
+		searcher.search("the", 0, 1, streamed::add);
+		Assert.assertEquals(1, streamed.size());
+	}
+
+	/** A budget smaller than any file indexes one file at a time, with the same results. */
+	@Test
+	public void testSmallBudget() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(1);
+		try {
+			CorpusSearcher searcher = new CorpusSearcher(Arrays.asList(third, first),
+					StandardCharsets.UTF_8, pool, 1);
+			List<Hit> hits = searcher.search("the", 1);
+			Assert.assertEquals(3, hits.size());
+			assertHit(third, 0, "The end", hits.get(0));
+			assertHit(first, 5, "over the lazy", hits.get(2));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void assertHit(File file, int position, String context,
+			Hit hit) {
+		Assert.assertEquals(file, hit.getFile());
+		Assert.assertEquals(position, hit.getPosition());
+		Assert.assertEquals(context, hit.getContext());
+	}
+}
@@ -0,0 +1,67 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for indexing a file in chunks and merging the spilled runs. */
+public class ExternalIndexBuilderTest {
+
+	private File source;
+	private File index;
+
+	@Before
+	public void copyExcerpt() throws Exception {
+		File excerpt = new File(getClass().getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+		source = File.createTempFile("excerpt", ".txt");
+		source.deleteOnExit();
+		Files.copy(excerpt.toPath(), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		index = IndexFile.defaultFor(source);
+		index.delete();
+		index.deleteOnExit();
+	}
+
+	/** Small chunks merged a few at a time find what an index built at once does. */
+	@Test
+	public void testSmallChunks() throws Exception {
+		TextSearcher indexer = new TextSearcher(TextSource.of(""), Analyzer.standard(),
+				ForkJoinPool.commonPool(), 1024);
+		new ExternalIndexBuilder(indexer, 4096, 32768).build(source, StandardCharsets.UTF_8, index);
+		IndexSnapshot snapshot = IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+				Analyzer.standard(), TextSource.map(source, StandardCharsets.UTF_8));
+		Assert.assertNotNull(snapshot);
+		Assert.assertTrue(snapshot.segments().length > 1);
+		File[] runs = index.getAbsoluteFile().getParentFile().listFiles((dir, name) ->
+				name.startsWith(index.getName()) && !name.equals(index.getName()));
+		Assert.assertEquals(0, runs.length);
+
+		TextSearcher built = new TextSearcher(TextSource.map(source, StandardCharsets.UTF_8),
+				ForkJoinPool.commonPool(), 1 << 16);
+		TextSearcher merged = TextSearcher.open(source, StandardCharsets.UTF_8, index,
+				Analyzer.standard(), 1 << 20);
+		Assert.assertEquals(built.count("the"), merged.count("the"));
+		for (String word : new String[] { "species", "animal's", "the", "natural", "absent" }) {
+			TextSearcherTest.assertArraysEqual(built.search(word, 3), merged.search(word, 3));
+		}
+		TextSearcherTest.assertArraysEqual(built.searchPhrase("natural selection", 2),
+				merged.searchPhrase("natural selection", 2));
+	}
+
+	/** Opening with a memory limit builds the index when there is none. */
+	@Test
+	public void testOpenWithMemoryLimit() throws Exception {
+		TextSearcher searcher = TextSearcher.open(source, StandardCharsets.UTF_8, index,
+				Analyzer.standard(), 1 << 20);
+		Assert.assertTrue(index.isFile());
+		TextSearcher built = new TextSearcher(TextSource.map(source, StandardCharsets.UTF_8),
+				ForkJoinPool.commonPool(), 1 << 16);
+		TextSearcherTest.assertArraysEqual(built.search("species", 4), searcher.search("species", 4));
+	}
+}
@@ -0,0 +1,135 @@
+package search;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for writing, reopening and invalidating index files. */
+public class IndexFileTest {
+
+	private File source;
+	private File index;
+
+	@Before
+	public void copyExcerpt() throws Exception {
+		File excerpt = new File(getClass().getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+		source = File.createTempFile("excerpt", ".txt");
+		source.deleteOnExit();
+		Files.copy(excerpt.toPath(), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		index = IndexFile.defaultFor(source);
+		index.delete();
+		index.deleteOnExit();
+	}
+
+	/** The first open writes the index, the second one maps it and finds the same hits. */
+	@Test
+	public void testReopen() throws Exception {
+		TextSearcher built = TextSearcher.open(source, StandardCharsets.UTF_8);
+		Assert.assertTrue(index.isFile());
+		Assert.assertNotNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+				Analyzer.standard(), TextSource.map(source, StandardCharsets.UTF_8)));
+
+		TextSearcher reopened = TextSearcher.open(source, StandardCharsets.UTF_8);
+		for (String word : new String[] { "species", "animal's", "the", "absent" }) {
+			TextSearcherTest.assertArraysEqual(built.search(word, 4), reopened.search(word, 4));
+		}
+	}
+
+	/** An index is not used for another charset or analyzer, or after the file changed. */
+	@Test
+	public void testStaleIndex() throws Exception {
+		TextSearcher.open(source, StandardCharsets.UTF_8);
+		Assert.assertNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.ISO_8859_1,
+				Analyzer.standard(), TextSource.map(source, StandardCharsets.ISO_8859_1)));
+		Assert.assertNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+				Analyzer.whitespace(), TextSource.map(source, StandardCharsets.UTF_8)));
+
+		byte[] bytes = Files.readAllBytes(source.toPath());
+		bytes[10] = 'x';
+		Files.write(source.toPath(), bytes);
+		source.setLastModified(source.lastModified() + 2000);
+		Assert.assertNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+				Analyzer.standard(), TextSource.map(source, StandardCharsets.UTF_8)));
+
+		// Opening again rebuilds the index for the new contents.
+		TextSearcher.open(source, StandardCharsets.UTF_8);
+		Assert.assertNotNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+				Analyzer.standard(), TextSource.map(source, StandardCharsets.UTF_8)));
+	}
+
+	/** Garbage in the index file is ignored. */
+	@Test
+	public void testCorruptIndex() throws Exception {
+		Files.write(index.toPath(), "not an index".getBytes(StandardCharsets.UTF_8));
+		Assert.assertNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+				Analyzer.standard(), TextSource.map(source, StandardCharsets.UTF_8)));
+		TextSearcher searcher = TextSearcher.open(source, StandardCharsets.UTF_8);
+		TextSearcherTest.assertArraysEqual(new TextSearcher(source).search("species", 3),
+				searcher.search("species", 3));
+		Assert.assertNotNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+				Analyzer.standard(), TextSource.map(source, StandardCharsets.UTF_8)));
+	}
+
+	/** Text appended while an index is built is not taken as covered by it. */
+	@Test
+	public void testAppendedWhileIndexing() throws Exception {
+		IndexFile.Stamp stamp = IndexFile.Stamp.of(source);
+		TextSearcher searcher = new TextSearcher(TextSource.map(source, StandardCharsets.UTF_8, 0,
+				stamp.length()), ForkJoinPool.commonPool(), 1 << 16);
+		Files.write(source.toPath(), " zygomorphic".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		IndexFile.write(index, stamp, StandardCharsets.UTF_8, Analyzer.standard(), searcher.snapshot());
+
+		Assert.assertNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+				Analyzer.standard(), TextSource.map(source, StandardCharsets.UTF_8)));
+		Assert.assertEquals(1, TextSearcher.open(source, StandardCharsets.UTF_8).count("zygomorphic"));
+	}
+
+	/** Truncated indexes, and sizes that don't fit the file, are rebuilt rather than read. */
+	@Test
+	public void testTruncatedIndex() throws Exception {
+		TextSearcher.open(source, StandardCharsets.UTF_8);
+		byte[] bytes = Files.readAllBytes(index.toPath());
+		for (int length : new int[] { 40, 200, bytes.length / 2, bytes.length - 1 }) {
+			Files.write(index.toPath(), Arrays.copyOf(bytes, length));
+			Assert.assertNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+					Analyzer.standard(), TextSource.map(source, StandardCharsets.UTF_8)));
+		}
+		// The segment count follows the key, whose length is at 32.
+		int countAt = 36 + ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt(32);
+		for (int count : new int[] { -1, Integer.MAX_VALUE, 1 << 20 }) {
+			ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(countAt, count);
+			Files.write(index.toPath(), bytes);
+			Assert.assertNull(IndexFile.read(index, IndexFile.Stamp.of(source), StandardCharsets.UTF_8,
+					Analyzer.standard(), TextSource.map(source, StandardCharsets.UTF_8)));
+		}
+		TextSearcherTest.assertArraysEqual(new TextSearcher(source).search("species", 3),
+				TextSearcher.open(source, StandardCharsets.UTF_8).search("species", 3));
+	}
+
+	/** A searcher is opened even if its index can't be written, and no temporary file is left. */
+	@Test
+	public void testUnwritableIndex() throws Exception {
+		File missing = new File(new File(source.getPath() + ".missing"), "index.idx");
+		TextSearcher searcher = TextSearcher.open(source, StandardCharsets.UTF_8, missing);
+		Assert.assertFalse(missing.getParentFile().exists());
+		TextSearcherTest.assertArraysEqual(new TextSearcher(source).search("species", 3),
+				searcher.search("species", 3));
+
+		TextSearcher.open(source, StandardCharsets.UTF_8);
+		File[] temps = source.getAbsoluteFile().getParentFile()
+				.listFiles((dir, name) -> name.startsWith(index.getName()) && name.endsWith(".tmp"));
+		Assert.assertEquals(0, temps.length);
+	}
+}
@@ -0,0 +1,89 @@
+package search;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for phrase and proximity matching. */
+public class PositionsTest {
+
+	/** Galloping finds the first value not less than the target. */
+	@Test
+	public void testGallop() throws Exception {
+		int[] a = { 1, 3, 5, 7, 9, 11, 13, 15, 17 };
+		Assert.assertEquals(0, Positions.gallop(a, 0, 0));
+		Assert.assertEquals(2, Positions.gallop(a, 0, 4));
+		Assert.assertEquals(2, Positions.gallop(a, 0, 5));
+		Assert.assertEquals(8, Positions.gallop(a, 3, 17));
+		Assert.assertEquals(9, Positions.gallop(a, 0, 18));
+		Assert.assertEquals(5, Positions.gallop(a, 5, 2));
+	}
+
+	/** Phrase spans start where the first term is followed by the others. */
+	@Test
+	public void testPhrase() throws Exception {
+		int[][] spans = Positions.phrase(new int[][] { { 0, 4, 10, 20 }, { 5, 11, 30 }, { 1, 12, 99 } });
+		TextSearcherTest.assertArraysEqual(new Integer[] { 10 }, box(spans[0]));
+		TextSearcherTest.assertArraysEqual(new Integer[] { 12 }, box(spans[1]));
+	}
+
+	/** Proximity spans use the nearest occurrence in either direction. */
+	@Test
+	public void testNear() throws Exception {
+		int[][] spans = Positions.near(new int[] { 5, 20, 40 }, new int[] { 2, 7, 23, 100 }, 3);
+		TextSearcherTest.assertArraysEqual(new Integer[] { 5, 20 }, box(spans[0]));
+		TextSearcherTest.assertArraysEqual(new Integer[] { 7, 23 }, box(spans[1]));
+		spans = Positions.near(new int[] { 5, 20 }, new int[] { 2, 100 }, Integer.MAX_VALUE);
+		TextSearcherTest.assertArraysEqual(new Integer[] { 2, 2 }, box(spans[0]));
+		TextSearcherTest.assertArraysEqual(new Integer[] { 5, 20 }, box(spans[1]));
+	}
+
+	/** Merging keeps every value of every list, in order. */
+	@Test
+	public void testMerge() throws Exception {
+		int[] merged = Positions.merge(new int[][] { { 2, 9, 40 }, {}, { 1, 3, 50 }, { 9, 10 }, { 0 } });
+		TextSearcherTest.assertArraysEqual(new Integer[] { 0, 1, 2, 3, 9, 9, 10, 40, 50 }, box(merged));
+		Assert.assertEquals(0, Positions.merge(new int[][] { {}, {} }).length);
+		int[] dest = new int[5];
+		Assert.assertEquals(4, Positions.merge(new int[][] { { 7, 8 } }, dest, 2));
+		TextSearcherTest.assertArraysEqual(new Integer[] { 0, 0, 7, 8, 0 }, box(dest));
+	}
+
+	/** Phrase and proximity searches through TextSearcher. */
+	@Test
+	public void testSearcher() throws Exception {
+		File file = new File(getClass().getClassLoader()
+				.getResource("files/short_excerpt.txt").getFile());
+		TextSearcher searcher = new TextSearcher(file);
+		TextSearcherTest.assertArraysEqual(new String[] {
+				"naturalists believed that species were",
+				"have believed that species undergo" },
+				searcher.searchPhrase("Believed that SPECIES,", 1));
+		TextSearcherTest.assertArraysEqual(new String[] { "Origin of Species" },
+				searcher.searchPhrase("origin of species", 0));
+		TextSearcherTest.assertArraysEqual(new String[] {
+				"believed that species",
+				"believed that species" },
+				searcher.searchNear("species", "believed", 2, 0));
+		Assert.assertEquals(0, searcher.searchPhrase("species believed", 3).length);
+		Assert.assertEquals(0, searcher.searchPhrase("  ", 3).length);
+		// Every species is near enough to some believed.
+		Assert.assertEquals(searcher.search("species", 0).length,
+				searcher.searchNear("species", "believed", Integer.MAX_VALUE, 0).length);
+		try {
+			searcher.searchNear("species", "believed", 0, 0);
+			Assert.fail();
+		} catch (IllegalArgumentException expected) {
+			// Words are at least 1 apart.
+		}
+	}
+
+	private static Integer[] box(int[] values) {
+		Integer[] boxed = new Integer[values.length];
+		for (int i = 0; i < values.length; i++) {
+			boxed[i] = values[i];
+		}
+		return boxed;
+	}
+}
@@ -0,0 +1,157 @@
+package search;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Unit tests for PostingsIndex. */
+public class PostingsIndexTest {
+
+	/** Positions come back sorted and shifted by the base, including multi-byte deltas. */
+	@Test
+	public void testDecode() throws Exception {
+		PostingsIndex.Builder builder = new PostingsIndex.Builder();
+		int[] expected = { 0, 1, 127, 128, 20000, 3000000, Integer.MAX_VALUE - 10 };
+		for (int p : expected) {
+			builder.add("word", p);
+		}
+		builder.add("other", 5);
+		TermDictionary terms = TermDictionary.empty().with(builder.terms());
+		PostingsIndex index = builder.build(terms);
+
+		Assert.assertEquals(2, index.size());
+		int term = index.find(terms.find("word"));
+		Assert.assertTrue(term >= 0);
+		Assert.assertEquals(expected.length, index.count(term));
+
+		int[] positions = new int[expected.length + 1];
+		int n = index.decode(term, 10, positions, 1);
+		Assert.assertEquals(expected.length + 1, n);
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(expected[i] + 10, positions[i + 1]);
+		}
+	}
+
+	/** A cursor reads the same positions one at a time, leaving out those from the limit on. */
+	@Test
+	public void testCursor() throws Exception {
+		PostingsIndex.Builder builder = new PostingsIndex.Builder();
+		for (int p : new int[] { 3, 200, 70000 }) {
+			builder.add("word", p);
+		}
+		TermDictionary terms = TermDictionary.empty().with(builder.terms());
+		PostingsIndex index = builder.build(terms);
+		PostingsIndex.Cursor cursor = index.cursor(index.find(terms.find("word")), 1, 70000);
+		Assert.assertTrue(cursor.hasNext());
+		Assert.assertEquals(4, cursor.next());
+		Assert.assertEquals(201, cursor.next());
+		Assert.assertFalse(cursor.hasNext());
+	}
+
+	/** Unknown terms are reported with a negative index. */
+	@Test
+	public void testMissingTerm() throws Exception {
+		PostingsIndex.Builder builder = new PostingsIndex.Builder();
+		builder.add("word", 1);
+		TermDictionary terms = TermDictionary.empty().with(builder.terms());
+		Assert.assertTrue(builder.build(terms).find(terms.find("absent")) < 0);
+		Assert.assertTrue(PostingsIndex.empty().find(terms.find("word")) < 0);
+	}
+
+	// A term with full blocks and a tail, with small gaps and a few large ones.
+	private static int[] blockPositions() {
+		Random random = new Random(7);
+		int[] positions = new int[3 * PostingsIndex.BLOCK + 50];
+		int position = 0;
+		for (int i = 0; i < positions.length; i++) {
+			position += 1 + (i % 97 == 0 ? random.nextInt(1 << 20) : random.nextInt(20));
+			positions[i] = position;
+		}
+		return positions;
+	}
+
+	/** Positions in packed blocks decode the same, whole or up to a limit. */
+	@Test
+	public void testBlocks() throws Exception {
+		int[] expected = blockPositions();
+		PostingsIndex.Builder builder = new PostingsIndex.Builder();
+		for (int p : expected) {
+			builder.add("word", p);
+		}
+		TermDictionary terms = TermDictionary.empty().with(builder.terms());
+		PostingsIndex index = builder.build(terms);
+		int term = index.find(terms.find("word"));
+		Assert.assertTrue(index.sizeInBytes() < 2 * expected.length);
+
+		int[] positions = new int[expected.length];
+		Assert.assertEquals(expected.length, index.decode(term, 0, positions, 0));
+		Assert.assertArrayEquals(expected, positions);
+		for (int i : new int[] { 0, 1, 127, 128, 129, 300, expected.length - 1 }) {
+			int limit = expected[i];
+			Assert.assertEquals(i, index.decode(term, 5, limit, new int[expected.length], 0));
+			Assert.assertEquals(i, index.countBelow(term, limit));
+			Assert.assertEquals(i + 1, index.countBelow(term, limit + 1));
+		}
+	}
+
+	/** Cursors skip and advance over blocks to the same positions as reading one at a time. */
+	@Test
+	public void testSkipAndAdvance() throws Exception {
+		int[] expected = blockPositions();
+		PostingsIndex.Builder builder = new PostingsIndex.Builder();
+		for (int p : expected) {
+			builder.add("word", p);
+		}
+		TermDictionary terms = TermDictionary.empty().with(builder.terms());
+		PostingsIndex index = builder.build(terms);
+		int term = index.find(terms.find("word"));
+		int limit = expected[expected.length - 1];
+
+		PostingsIndex.Cursor cursor = index.cursor(term, 3, limit);
+		Assert.assertEquals(10, cursor.skip(10));
+		Assert.assertEquals(expected[10] + 3, cursor.next());
+		Assert.assertEquals(300, cursor.skip(300));
+		Assert.assertEquals(expected[311] + 3, cursor.peek());
+		Assert.assertEquals(expected.length - 312, cursor.skip(1000));
+		Assert.assertFalse(cursor.hasNext());
+
+		cursor = index.cursor(term, 3, limit);
+		for (int target : new int[] { 0, expected[5], expected[5] + 1, expected[200] - 1,
+				expected[390], expected[400] + 1 }) {
+			cursor.advance(target + 3);
+			int i = Arrays.binarySearch(expected, target);
+			i = i < 0 ? -i - 1 : i;
+			Assert.assertEquals(expected[i] + 3, cursor.next());
+		}
+		cursor.advance(limit + 3);
+		Assert.assertFalse(cursor.hasNext());
+	}
+
+	/** Merged segments hold the positions of each part, shifted and cut at their limits. */
+	@Test
+	public void testMerge() throws Exception {
+		int[] expected = blockPositions();
+		PostingsIndex.Builder first = new PostingsIndex.Builder();
+		PostingsIndex.Builder second = new PostingsIndex.Builder();
+		for (int p : expected) {
+			first.add("word", p);
+			second.add("word", p);
+		}
+		first.add("other", expected[expected.length - 1] + 1);
+		TermDictionary terms = TermDictionary.empty().with(first.terms());
+		int end = expected[expected.length - 1] + 1;
+		PostingsIndex merged = PostingsIndex.merge(
+				new PostingsIndex[] { first.build(terms), second.build(terms) },
+				new int[] { 0, end }, new int[] { end, end });
+		Assert.assertEquals(1, merged.size());
+		int term = merged.find(terms.find("word"));
+		int[] positions = new int[2 * expected.length];
+		Assert.assertEquals(positions.length, merged.decode(term, 0, positions, 0));
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(expected[i], positions[i]);
+			Assert.assertEquals(expected[i] + end, positions[expected.length + i]);
+		}
+	}
+}
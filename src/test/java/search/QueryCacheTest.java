@@ -0,0 +1,68 @@
+package search;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for caching search results. */
+public class QueryCacheTest {
+
+	private TextSearcher searcher(String text) {
+		return new TextSearcher(TextSource.of(text), ForkJoinPool.commonPool(), 1 << 16);
+	}
+
+	/** Repeated searches are answered from the cache, whatever the case of the word. */
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		TextSearcher searcher = searcher("one two three two one");
+		QueryCache cache = new QueryCache(100, 1 << 20);
+		searcher.setQueryCache(cache);
+		String[] first = searcher.search("two", 1);
+		first[0] = "changed";
+		TextSearcherTest.assertArraysEqual(new String[] { "one two three", "three two one" },
+				searcher.search("Two", 1));
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(1, cache.getHitCount());
+		searcher.search("two", 2);
+		Assert.assertEquals(2, cache.getMissCount());
+		Assert.assertEquals(2, cache.size());
+		Assert.assertTrue(cache.sizeInBytes() > 0);
+	}
+
+	/** The least recently used results go first once there are too many. */
+	@Test
+	public void testEviction() throws Exception {
+		TextSearcher searcher = searcher("a b c d e f g h i j k l m n o p q r s t u v w x y z");
+		QueryCache cache = new QueryCache(1, 1 << 20);
+		searcher.setQueryCache(cache);
+		for (char c = 'a'; c <= 'z'; c++) {
+			searcher.search(String.valueOf(c), 1);
+		}
+		Assert.assertTrue(cache.size() <= 16);
+		Assert.assertTrue(cache.getEvictionCount() >= 26 - 16);
+
+		QueryCache small = new QueryCache(100, 16 * 100);
+		searcher.setQueryCache(small);
+		for (char c = 'a'; c <= 'z'; c++) {
+			searcher.search(String.valueOf(c), 1);
+		}
+		Assert.assertTrue(small.sizeInBytes() <= 16 * 100);
+	}
+
+	/** Cached results are not used once text is added. */
+	@Test
+	public void testInvalidation() throws Exception {
+		TextSearcher searcher = searcher("one two");
+		QueryCache cache = new QueryCache(100, 1 << 20);
+		searcher.setQueryCache(cache);
+		TextSearcherTest.assertArraysEqual(new String[] { "one two" }, searcher.search("two", 1));
+		searcher.append(" two three");
+		TextSearcherTest.assertArraysEqual(new String[] { "one two two", "two two three" },
+				searcher.search("two", 1));
+		Assert.assertEquals(0, cache.getHitCount());
+		searcher.init("two four");
+		TextSearcherTest.assertArraysEqual(new String[] { "two four" }, searcher.search("two", 1));
+		Assert.assertEquals(0, cache.getHitCount());
+	}
+}
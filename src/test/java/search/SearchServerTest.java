@@ -0,0 +1,169 @@
+package search;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for the HTTP search server, over the loopback interface. */
+public class SearchServerTest {
+
+	private static final TextSearcher SEARCHER = new TextSearcher(TextSource.of(
+			"The \"origin\" of species,\nby means of natural selection of species."),
+			ForkJoinPool.commonPool(), 1 << 16);
+
+	// Status and body of a GET.
+	private static String[] get(SearchServer server, String path) throws Exception {
+		URL url = new URL("http", server.getAddress().getHostString(),
+				server.getAddress().getPort(), path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n; in != null && (n = in.read(buffer)) > 0; ) {
+			body.write(buffer, 0, n);
+		}
+		return new String[] { Integer.toString(status), new String(body.toByteArray(),
+				StandardCharsets.UTF_8) };
+	}
+
+	/** Searches answer what the searcher finds, as JSON. */
+	@Test
+	public void testSearches() throws Exception {
+		try (SearchServer server = SearchServer.builder(SEARCHER).start()) {
+			Assert.assertArrayEquals(new String[] { "200", "[\"origin\\\" of species\",\"means of natural\"]" },
+					get(server, "/search?q=of&context=1&limit=2"));
+			Assert.assertArrayEquals(new String[] { "200", "[\"species,\\nby means\"]" },
+					get(server, "/search?q=by&context=1"));
+			Assert.assertArrayEquals(new String[] { "200", "3" }, get(server, "/count?q=OF"));
+			Assert.assertArrayEquals(new String[] { "200", "[\"natural selection\"]" },
+					get(server, "/phrase?q=natural+selection"));
+			Assert.assertEquals("200", get(server, "/ranked?q=natural%20species&k=1")[0]);
+			Assert.assertEquals("400", get(server, "/search")[0]);
+			Assert.assertEquals("400", get(server, "/search?q=of&context=x")[0]);
+			Assert.assertEquals("404", get(server, "/other?q=of")[0]);
+		}
+	}
+
+	/** Failed searches get 500 without saying what went wrong. */
+	@Test
+	public void testInternalError() throws Exception {
+		TextSearcher closed = new TextSearcher(TextSource.of("a b c"), ForkJoinPool.commonPool(), 1 << 16);
+		closed.close();
+		try (SearchServer server = SearchServer.builder(closed).start()) {
+			Assert.assertArrayEquals(new String[] { "500", "\"Internal error\"" },
+					get(server, "/count?q=a"));
+		}
+	}
+
+	/** Identical requests coming in together share one search. */
+	@Test
+	public void testCoalescing() throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(8);
+		try (SearchServer server = SearchServer.builder(SEARCHER)
+				.coalesceWindow(300, TimeUnit.MILLISECONDS).start()) {
+			List<Future<String[]>> answers = new ArrayList<Future<String[]>>();
+			for (int i = 0; i < 8; i++) {
+				answers.add(clients.submit(() -> get(server, "/count?q=species")));
+			}
+			for (Future<String[]> answer : answers) {
+				Assert.assertArrayEquals(new String[] { "200", "2" }, answer.get());
+			}
+			Assert.assertEquals(8, server.getRequests());
+			Assert.assertTrue(server.getLookups() < 8);
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+	/** Requests beyond the limit are turned away, and slow ones time out. */
+	@Test
+	public void testBackpressureAndTimeout() throws Exception {
+		ExecutorService clients = Executors.newSingleThreadExecutor();
+		try (SearchServer server = SearchServer.builder(SEARCHER).maxInFlight(1)
+				.coalesceWindow(2, TimeUnit.SECONDS).timeout(500, TimeUnit.MILLISECONDS).start()) {
+			Future<String[]> first = clients.submit(() -> get(server, "/count?q=of"));
+			while (server.getRequests() == 0) {
+				Thread.sleep(5);
+			}
+			Assert.assertEquals("503", get(server, "/count?q=natural")[0]);
+			Assert.assertEquals("504", first.get()[0]);
+			Assert.assertEquals(1, server.getRejected());
+			Assert.assertEquals(1, server.getTimedOut());
+			// The place of the request that timed out is free again, but not
+			// that of its search, which a new request can still join.
+			Assert.assertEquals("504", get(server, "/count?q=of")[0]);
+			Assert.assertEquals("503", get(server, "/count?q=natural")[0]);
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+	/**
+	 * Searches of requests that timed out keep their place until they end, so
+	 * new ones are turned away meanwhile, and let in again once they ended.
+	 */
+	@Test
+	public void testTimedOutSearchesAreBounded() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			text.append("the origin of species ");
+		}
+		TextSearcher searcher = new TextSearcher(TextSource.of(text.toString()),
+				ForkJoinPool.commonPool(), 1 << 16);
+		try (SearchServer server = SearchServer.builder(searcher).threads(1).maxInFlight(1)
+				.coalesceWindow(0, TimeUnit.MILLISECONDS).timeout(1, TimeUnit.MILLISECONDS).start()) {
+			for (int i = 0; i < 6; i++) {
+				get(server, "/search?q=the&context=2&n=" + i);
+			}
+			Assert.assertTrue(server.getRejected() > 0);
+			String status = "503";
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+			while (status.equals("503") && System.nanoTime() < deadline) {
+				Thread.sleep(20);
+				status = get(server, "/count?q=origin")[0];
+			}
+			Assert.assertNotEquals("503", status);
+		}
+	}
+
+	/** A client that does not read its answer holds up neither searches nor other answers. */
+	@Test
+	public void testStalledClient() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500000; i++) {
+			text.append("the origin of species ");
+		}
+		TextSearcher searcher = new TextSearcher(TextSource.of(text.toString()),
+				ForkJoinPool.commonPool(), 1 << 16);
+		try (SearchServer server = SearchServer.builder(searcher).threads(1)
+				.timeout(20, TimeUnit.SECONDS).start();
+				Socket stalled = new Socket(server.getAddress().getAddress(),
+						server.getAddress().getPort())) {
+			// Megabytes of hits, more than the socket buffers hold.
+			stalled.getOutputStream().write("GET /search?q=the&context=3 HTTP/1.1\r\nHost: x\r\n\r\n"
+					.getBytes(StandardCharsets.US_ASCII));
+			stalled.getOutputStream().flush();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+			while (server.getLookups() == 0 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(500);
+			Assert.assertArrayEquals(new String[] { "200", "500000" }, get(server, "/count?q=origin"));
+			Assert.assertArrayEquals(new String[] { "200", "500000" }, get(server, "/count?q=species"));
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package search;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for the metrics reported by TextSearcher and shown by SearchStats. */
+public class SearchStatsTest {
+
+	private static File longExcerptFile() {
+		return new File(SearchStatsTest.class.getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+	}
+
+	/** Indexing reports its segments and the size of the index. */
+	@Test
+	public void testIndexing() throws Exception {
+		SearchStats stats = new SearchStats();
+		File file = longExcerptFile();
+		TextSearcher searcher = new TextSearcher(file, StandardCharsets.UTF_8,
+				ForkJoinPool.commonPool(), stats);
+		Assert.assertTrue(stats.getSegmentCount() >= 1);
+		Assert.assertTrue(stats.getMinSegmentLength() <= stats.getMaxSegmentLength());
+		Assert.assertTrue(stats.getSegmentSkew() >= 1);
+		Assert.assertEquals(searcher.snapshot().text().length(), stats.getTextLength());
+		Assert.assertEquals(searcher.indexBytesPerCorpusByte(),
+				stats.getIndexBytesPerCorpusByte(), 1e-9);
+
+		searcher.append(" and more words");
+		Assert.assertEquals(searcher.snapshot().text().length(), stats.getTextLength());
+
+		// Index figures are those of the last searcher reporting, not totals.
+		TextSearcher other = new TextSearcher(TextSource.of("a few words"),
+				ForkJoinPool.commonPool(), 1 << 16);
+		other.setMetrics(stats);
+		other.append(" more");
+		Assert.assertEquals(other.snapshot().text().length(), stats.getTextLength());
+		Assert.assertEquals(other.snapshot().sizeInBytes(), stats.getIndexBytes());
+	}
+
+	/** Each search is counted with its hits, whatever kind of search it is. */
+	@Test
+	public void testSearches() throws Exception {
+		SearchStats stats = new SearchStats();
+		TextSearcher searcher = new TextSearcher(TextSource.of("a b a c a"),
+				ForkJoinPool.commonPool(), 1 << 16);
+		Assert.assertSame(SearchMetrics.NONE, searcher.getMetrics());
+		searcher.search("a", 0);
+		searcher.setMetrics(stats);
+		searcher.search("a", 1);
+		searcher.count("b");
+		searcher.search("a", 1, 1, 5);
+		searcher.searchPhrase("a b", 0);
+		searcher.searchPattern("?", 0);
+		Assert.assertEquals(5, stats.getSearchCount());
+		Assert.assertEquals(3 + 1 + 2 + 1 + 5, stats.getHitCount());
+		Assert.assertEquals(12 / 5.0, stats.getMeanHitsPerSearch(), 1e-9);
+		long searches = 0;
+		for (long count : stats.getSearchLatencyHistogram()) {
+			searches += count;
+		}
+		Assert.assertEquals(5, searches);
+		Assert.assertTrue(stats.getMedianSearchMicros() <= stats.getSearchMicros99());
+		Assert.assertEquals(2, stats.getHitsHistogram()[1]);
+		Assert.assertEquals(2, stats.getHitsHistogram()[2]);
+		Assert.assertEquals(1, stats.getHitsHistogram()[3]);
+
+		stats.reset();
+		Assert.assertEquals(0, stats.getSearchCount());
+		Assert.assertEquals(0, stats.getSearchMicros99());
+	}
+
+	/** Registered stats can be read over JMX. */
+	@Test
+	public void testMBean() throws Exception {
+		SearchStats stats = new SearchStats();
+		ObjectName name = stats.register("test");
+		try {
+			TextSearcher searcher = new TextSearcher(TextSource.of("x y x"),
+					ForkJoinPool.commonPool(), 1 << 16);
+			searcher.setMetrics(stats);
+			searcher.search("x", 1);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			Assert.assertEquals(1L, server.getAttribute(name, "SearchCount"));
+			Assert.assertEquals(2L, server.getAttribute(name, "HitCount"));
+		} finally {
+			stats.unregister();
+		}
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+}
@@ -0,0 +1,149 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Unit tests for TermDictionary. */
+public class TermDictionaryTest {
+
+	/** Ids follow the order terms are added in and don't change as more are added. */
+	@Test
+	public void testStableIds() throws Exception {
+		TermDictionary terms = TermDictionary.empty().with(Arrays.asList("b", "a", "b"));
+		Assert.assertEquals(2, terms.size());
+		Assert.assertEquals(0, terms.find("b"));
+		Assert.assertEquals(1, terms.find("a"));
+		Assert.assertEquals(-1, terms.find("c"));
+
+		List<String> words = new ArrayList<String>();
+		TermDictionary grown = terms;
+		for (int i = 0; i < 1000; i++) {
+			String word = "w" + i;
+			words.add(word);
+			// Small batches, so that layers get merged many times.
+			if (i % 7 == 6) {
+				grown = grown.with(words);
+				words.clear();
+			}
+		}
+		grown = grown.with(words);
+		Assert.assertSame(grown, grown.with(Arrays.asList("a", "w5")));
+		Assert.assertEquals(1002, grown.size());
+		Assert.assertEquals(0, grown.find("b"));
+		Assert.assertEquals(1, grown.find("a"));
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals(i + 2, grown.find("w" + i));
+			Assert.assertEquals("w" + i, grown.term(i + 2));
+		}
+	}
+
+	/** A dictionary written out and wrapped again has the same ids. */
+	@Test
+	public void testBuffer() throws Exception {
+		TermDictionary terms = TermDictionary.empty().with(Arrays.asList("x", "y"))
+				.with(Arrays.asList("z", "\u00e9t\u00e9"));
+		TermDictionary wrapped = TermDictionary.wrap(terms.buffer());
+		Assert.assertEquals(4, wrapped.size());
+		for (String term : new String[] { "x", "y", "z", "\u00e9t\u00e9" }) {
+			Assert.assertEquals(terms.find(term), wrapped.find(term));
+		}
+		Assert.assertEquals(0, TermDictionary.wrap(TermDictionary.empty().buffer()).size());
+	}
+
+	/** Query words are normalized like the text: case and trailing punctuation don't matter. */
+	@Test
+	public void testQueryNormalization() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of("new Forms. of life"),
+				ForkJoinPool.commonPool(), 1 << 16);
+		TextSearcherTest.assertArraysEqual(new String[] { "new Forms. of" },
+				searcher.search("forms.", 1));
+		TextSearcherTest.assertArraysEqual(new String[] { "new Forms. of" },
+				searcher.search("FORMS", 1));
+		Assert.assertEquals(1, searcher.count("forms!"));
+	}
+
+	/** Prefix and wildcard lookups find the same terms as checking every term, in every layer. */
+	@Test
+	public void testPrefixAndPattern() throws Exception {
+		TermDictionary terms = TermDictionary.empty()
+				.with(Arrays.asList("nature", "natural", "species", "special"))
+				.with(Arrays.asList("naturally", "spices", "nation", "specie"));
+		assertIds(terms, new String[] { "nature", "natural", "naturally" }, terms.withPrefix("natur"));
+		assertIds(terms, new String[] { "nature", "natural", "naturally" }, terms.matching("natur*"));
+		assertIds(terms, new String[] { "species" }, terms.matching("sp?c?es"));
+		assertIds(terms, new String[] { "species", "spices" }, terms.matching("sp*c*es"));
+		assertIds(terms, new String[] { "natural", "special" }, terms.matching("*al"));
+		assertIds(terms, new String[] { "specie" }, terms.matching("specie"));
+		assertIds(terms, new String[0], terms.matching("specie??"));
+		Assert.assertEquals(8, terms.withPrefix("").length);
+
+		TermDictionary wrapped = TermDictionary.wrap(terms.buffer());
+		assertIds(terms, new String[] { "species", "special", "specie" }, wrapped.matching("spec*"));
+	}
+
+	/** Fuzzy lookups find the terms within the edit distance, and only those, however large. */
+	@Test
+	public void testSimilar() throws Exception {
+		Random random = new Random(42);
+		List<String> all = new ArrayList<String>();
+		TermDictionary terms = TermDictionary.empty();
+		for (int batch = 0; batch < 20; batch++) {
+			List<String> words = new ArrayList<String>();
+			for (int i = 0; i < 50; i++) {
+				char[] chars = new char[1 + random.nextInt(6)];
+				for (int c = 0; c < chars.length; c++) {
+					chars[c] = (char) ('a' + random.nextInt(4));
+				}
+				words.add(new String(chars));
+			}
+			// Longer than the rows made up front, for any edit distance.
+			words.add("abcd" + batch + "abcdabcdabcd");
+			all.addAll(words);
+			terms = terms.with(words);
+		}
+		for (String query : new String[] { "abca", "d", "", "abcdabcd", "bbb" }) {
+			for (int maxEdits : new int[] { 0, 1, 2, 14, Integer.MAX_VALUE }) {
+				List<String> expected = new ArrayList<String>();
+				for (String term : new TreeSet<String>(all)) {
+					if (distance(query, term) <= maxEdits) {
+						expected.add(term);
+					}
+				}
+				assertIds(terms, expected.toArray(new String[0]), terms.similar(query, maxEdits));
+			}
+		}
+	}
+
+	private static int distance(String a, String b) {
+		int[][] d = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); i++) {
+			for (int j = 0; j <= b.length(); j++) {
+				if (i == 0 || j == 0) {
+					d[i][j] = i + j;
+				} else {
+					d[i][j] = Math.min(Math.min(d[i - 1][j], d[i][j - 1]) + 1,
+							d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+				}
+			}
+		}
+		return d[a.length()][b.length()];
+	}
+
+	private static void assertIds(TermDictionary terms, String[] expected, int[] ids) {
+		String[] found = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			found[i] = terms.term(ids[i]);
+		}
+		String[] sortedExpected = expected.clone();
+		Arrays.sort(sortedExpected);
+		Arrays.sort(found);
+		Assert.assertEquals(Arrays.asList(sortedExpected), Arrays.asList(found));
+	}
+}
@@ -0,0 +1,115 @@
+package search;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests that appended text is searched as if it had been indexed with the rest. */
+public class TextSearcherAppendTest {
+
+	private static final String[] WORDS = { "the", "species", "animal's", "natural",
+			"selection", "absent" };
+
+	private String longExcerpt() throws Exception {
+		File file = new File(getClass().getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private void assertSameHits(TextSearcher expected, TextSearcher actual) {
+		for (String word : WORDS) {
+			for (int context = 0; context <= 6; context += 3) {
+				TextSearcherTest.assertArraysEqual(expected.search(word, context),
+						actual.search(word, context));
+			}
+		}
+	}
+
+	/** Appending in small pieces, cutting words in two, gives the same hits as indexing it all. */
+	@Test
+	public void testAppendInPieces() throws Exception {
+		String text = longExcerpt();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		TextSearcher whole = new TextSearcher(TextSource.of(text), executor, 1 << 16);
+		TextSearcher appended = new TextSearcher(TextSource.of(text.substring(0, 100)),
+				executor, 1 << 16);
+		int pieces = 1;
+		// Odd piece lengths, so some pieces end inside a word.
+		for (int start = 100; start < text.length(); start += 37) {
+			appended.append(text.substring(start, Math.min(text.length(), start + 37)));
+			pieces++;
+		}
+		assertSameHits(whole, appended);
+
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertTrue(appended.snapshot().segments().length < pieces / 4);
+		assertSameHits(whole, appended);
+	}
+
+	/** A word cut in two by an append is found whole, and its first half is not. */
+	@Test
+	public void testWordCutInTwo() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of("the natur"),
+				ForkJoinPool.commonPool(), 1 << 16);
+		searcher.append("al selection");
+		TextSearcherTest.assertArraysEqual(new String[] { "the natural selection" },
+				searcher.search("natural", 1));
+		Assert.assertEquals(0, searcher.search("natur", 1).length);
+		searcher.append(" of species");
+		TextSearcherTest.assertArraysEqual(new String[] { "selection of species" },
+				searcher.search("of", 1));
+	}
+
+	/** Merging segments does not change the hits. */
+	@Test
+	public void testMergeSegments() throws Exception {
+		String text = longExcerpt();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		TextSearcher whole = new TextSearcher(TextSource.of(text), executor, 1 << 16);
+		TextSearcher appended = new TextSearcher(TextSource.of(""), executor, 1 << 16);
+		for (int start = 0; start < text.length(); start += 1000) {
+			appended.append(text.substring(start, Math.min(text.length(), start + 1000)));
+		}
+		while (appended.mergeSegments()) {
+			assertSameHits(whole, appended);
+		}
+		executor.shutdown();
+	}
+
+	/** Refreshing a searcher indexes what was written to its file since. */
+	@Test
+	public void testRefresh() throws Exception {
+		File file = File.createTempFile("append", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "caf\u00e9 logs gro".getBytes(StandardCharsets.UTF_8));
+		TextSearcher searcher = new TextSearcher(file, StandardCharsets.UTF_8);
+		Assert.assertFalse(searcher.refresh());
+		try (OutputStream out = new FileOutputStream(file, true)) {
+			out.write("w and grow caf\u00e9".getBytes(StandardCharsets.UTF_8));
+		}
+		Assert.assertTrue(searcher.refresh());
+		TextSearcherTest.assertArraysEqual(new String[] { "logs grow and",
+				"and grow caf\u00e9" },
+				searcher.search("grow", 1));
+		TextSearcherTest.assertArraysEqual(new String[] { "caf\u00e9 logs",
+				"grow caf\u00e9" }, searcher.search("caf\u00e9", 1));
+		Assert.assertEquals(0, searcher.search("gro", 1).length);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRefreshWithoutFile() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of("text"),
+				ForkJoinPool.commonPool(), 1 << 16);
+		searcher.refresh();
+	}
+}
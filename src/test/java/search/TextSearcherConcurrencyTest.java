@@ -0,0 +1,62 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Searches from many threads at once, while the index is being replaced. */
+public class TextSearcherConcurrencyTest {
+
+	private static final String[] WORDS = { "species", "the", "animal's", "natural",
+			"selection", "absent" };
+
+	/** Every search sees either the old or the new index, never a mix of them. */
+	@Test
+	public void testConcurrentSearches() throws Exception {
+		File file = new File(getClass().getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+		final String text = new String(java.nio.file.Files.readAllBytes(file.toPath()),
+				StandardCharsets.UTF_8);
+		final TextSearcher searcher = new TextSearcher(file, StandardCharsets.UTF_8);
+		final List<String[]> expected = new ArrayList<String[]>();
+		for (String word : WORDS) {
+			expected.add(searcher.search(word, 3));
+		}
+
+		ExecutorService readers = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < 8; t++) {
+				futures.add(readers.submit(new Callable<Integer>() {
+					public Integer call() {
+						int searches = 0;
+						for (int i = 0; i < 300; i++) {
+							int w = i % WORDS.length;
+							TextSearcherTest.assertArraysEqual(expected.get(w),
+									searcher.search(WORDS[w], 3));
+							searches++;
+						}
+						return searches;
+					}
+				}));
+			}
+			// Rebuilds the same index while the readers run.
+			for (int i = 0; i < 5; i++) {
+				searcher.init(text);
+			}
+			for (Future<Integer> future : futures) {
+				Assert.assertEquals(Integer.valueOf(300), future.get());
+			}
+		} finally {
+			readers.shutdown();
+		}
+	}
+}
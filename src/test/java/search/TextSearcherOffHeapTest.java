@@ -0,0 +1,139 @@
+package search;
+
+import java.io.File;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for keeping the index outside the heap, and for closing searchers. */
+public class TextSearcherOffHeapTest {
+
+	private static final String[] WORDS = { "the", "species", "animal's", "natural", "absent" };
+
+	private String longExcerpt() throws Exception {
+		File file = new File(getClass().getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private void assertSameHits(TextSearcher expected, TextSearcher actual) {
+		for (String word : WORDS) {
+			TextSearcherTest.assertArraysEqual(expected.search(word, 3), actual.search(word, 3));
+		}
+		TextSearcherTest.assertArraysEqual(expected.searchPhrase("natural selection", 2),
+				actual.searchPhrase("natural selection", 2));
+		TextSearcherTest.assertArraysEqual(expected.searchPattern("spec*", 1),
+				actual.searchPattern("spec*", 1));
+	}
+
+	private void assertOffHeap(IndexSnapshot snapshot) {
+		for (TextSearcher.CallableResult segment : snapshot.segments()) {
+			Assert.assertTrue(segment.getPostings().buffer().isDirect());
+			Assert.assertTrue(segment.getOffsets().buffer().isDirect());
+		}
+	}
+
+	/** An index moved off the heap, and what is appended to it, give the same hits. */
+	@Test
+	public void testSameHits() throws Exception {
+		String text = longExcerpt();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		TextSearcher heap = new TextSearcher(TextSource.of(text), executor, 1 << 12);
+		TextSearcher offHeap = new TextSearcher(TextSource.of(text.substring(0, 50000)),
+				executor, 1 << 12);
+		Assert.assertFalse(offHeap.isOffHeap());
+		offHeap.moveOffHeap();
+		Assert.assertTrue(offHeap.isOffHeap());
+		assertOffHeap(offHeap.snapshot());
+		for (int start = 50000; start < text.length(); start += 10001) {
+			offHeap.append(text.substring(start, Math.min(text.length(), start + 10001)));
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertOffHeap(offHeap.snapshot());
+		assertSameHits(heap, offHeap);
+		offHeap.close();
+	}
+
+	/**
+	 * Closing frees the memory of the index, and the searcher, its streams and
+	 * its hits can't be used after.
+	 */
+	@Test
+	public void testClose() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of(longExcerpt()),
+				ForkJoinPool.commonPool(), 1 << 12);
+		searcher.moveOffHeap();
+		Iterator<Hit> stream = searcher.hits("the", 2).iterator();
+		Hit hit = stream.next();
+		IndexSnapshot snapshot = searcher.snapshot();
+		long indexBytes = snapshot.sizeInBytes() - 4L * snapshot.segments().length;
+		long before = directMemoryUsed();
+		searcher.close();
+		Assert.assertTrue(before - directMemoryUsed() >= indexBytes);
+		searcher.close();
+		try {
+			searcher.search("the", 3);
+			Assert.fail();
+		} catch (IllegalStateException expected) {
+			// Closed.
+		}
+		try {
+			searcher.searchPhrase(" ", 3);
+			Assert.fail();
+		} catch (IllegalStateException expected) {
+			// Closed.
+		}
+		try {
+			stream.next();
+			Assert.fail();
+		} catch (IllegalStateException expected) {
+			// Closed.
+		}
+		try {
+			hit.getContext();
+			Assert.fail();
+		} catch (IllegalStateException expected) {
+			// Closed.
+		}
+		try {
+			searcher.append(" more");
+			Assert.fail();
+		} catch (IllegalStateException expected) {
+			// Closed.
+		}
+	}
+
+	/** Closing waits for the searches reading the index, and no longer. */
+	@Test
+	public void testCloseWaitsForSearches() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of("a b c"), ForkJoinPool.commonPool(), 1 << 12);
+		searcher.moveOffHeap();
+		searcher.enter();
+		Thread closing = new Thread(searcher::close);
+		closing.start();
+		closing.join(200);
+		Assert.assertTrue(closing.isAlive());
+		searcher.exit();
+		closing.join(10000);
+		Assert.assertFalse(closing.isAlive());
+	}
+
+	private static long directMemoryUsed() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (pool.getName().equals("direct")) {
+				return pool.getMemoryUsed();
+			}
+		}
+		throw new AssertionError("No direct buffer pool");
+	}
+}
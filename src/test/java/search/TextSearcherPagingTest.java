@@ -0,0 +1,84 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for counting hits, pages of hits and streams of hits. */
+public class TextSearcherPagingTest {
+
+	private static final String[] WORDS = { "the", "species", "animal's", "absent" };
+
+	private TextSearcher longExcerpt(long minSegmentLength) throws Exception {
+		File file = new File(getClass().getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+		return new TextSearcher(TextSource.map(file, StandardCharsets.UTF_8),
+				ForkJoinPool.commonPool(), minSegmentLength);
+	}
+
+	/** Counts match the number of hits, across many segments. */
+	@Test
+	public void testCount() throws Exception {
+		TextSearcher searcher = longExcerpt(16);
+		for (String word : WORDS) {
+			Assert.assertEquals(searcher.search(word, 0).length, searcher.count(word));
+		}
+		Assert.assertEquals(0, searcher.count("absent"));
+	}
+
+	/** Pages are slices of the full result, wherever they start and end. */
+	@Test
+	public void testPages() throws Exception {
+		TextSearcher searcher = longExcerpt(16);
+		String[] all = searcher.search("the", 3);
+		for (int offset : new int[] { 0, 1, 7, all.length - 2, all.length, all.length + 5 }) {
+			for (int limit : new int[] { 0, 1, 5, 1000 }) {
+				int from = Math.min(offset, all.length);
+				int to = Math.min(all.length, offset + limit);
+				TextSearcherTest.assertArraysEqual(Arrays.copyOfRange(all, from, Math.max(from, to)),
+						searcher.search("the", 3, offset, limit));
+			}
+		}
+		TextSearcherTest.assertArraysEqual(new String[] { "species", "species" },
+				searcher.search("species", 0, 1, 2));
+	}
+
+	/** Streamed hits give the same context as search, in the same order, with their positions. */
+	@Test
+	public void testHits() throws Exception {
+		TextSearcher searcher = longExcerpt(16);
+		for (String word : WORDS) {
+			List<String> contexts = searcher.hits(word, 4).map(Hit::getContext)
+					.collect(Collectors.toList());
+			TextSearcherTest.assertArraysEqual(searcher.search(word, 4),
+					contexts.toArray(new String[0]));
+		}
+		List<Hit> page = searcher.hits("the", 2).skip(3).limit(2)
+				.collect(Collectors.toList());
+		TextSearcherTest.assertArraysEqual(searcher.search("the", 2, 3, 2),
+				new String[] { page.get(0).getContext(), page.get(1).getContext() });
+		Assert.assertTrue(page.get(0).getPosition() < page.get(1).getPosition());
+		Assert.assertNull(page.get(0).getFile());
+		Assert.assertEquals(searcher.count("the"), searcher.hits("the", 2).count());
+	}
+
+	/** A word cut in two by an append is neither counted nor streamed under its first half. */
+	@Test
+	public void testAppendedText() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of("a natur"),
+				ForkJoinPool.commonPool(), 1 << 16);
+		searcher.append("al b natur");
+		Assert.assertEquals(1, searcher.count("natur"));
+		Assert.assertEquals(1, searcher.count("natural"));
+		Assert.assertEquals(1, searcher.hits("natur", 1).count());
+		TextSearcherTest.assertArraysEqual(new String[] { "b natur" },
+				searcher.search("natur", 1, 0, 10));
+	}
+}
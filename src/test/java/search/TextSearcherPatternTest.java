@@ -0,0 +1,86 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for searching with wildcard patterns and with typos. */
+public class TextSearcherPatternTest {
+
+	private static File longExcerptFile() {
+		return new File(TextSearcherPatternTest.class.getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+	}
+
+	// Normalized words of the long excerpt, in text order.
+	private static List<String> longExcerptWords() throws Exception {
+		String text = new String(Files.readAllBytes(longExcerptFile().toPath()),
+				StandardCharsets.UTF_8);
+		List<String> words = new ArrayList<String>();
+		TextTokenizer tokenizer = new TextTokenizer(text);
+		while (tokenizer.hasNext()) {
+			String token = tokenizer.next();
+			if (tokenizer.isWord(token)) {
+				words.add(WordScanner.normalize(token));
+			}
+		}
+		return words;
+	}
+
+	/** Hits of a pattern are the words matching it, in text order, across segments. */
+	@Test
+	public void testPattern() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.map(longExcerptFile(),
+				StandardCharsets.UTF_8), ForkJoinPool.commonPool(), 16);
+		List<String> natur = new ArrayList<String>();
+		List<String> spec = new ArrayList<String>();
+		for (String word : longExcerptWords()) {
+			if (word.startsWith("natur")) {
+				natur.add(word);
+			}
+			if (word.matches("spec.es")) {
+				spec.add(word);
+			}
+		}
+		Assert.assertFalse(natur.isEmpty());
+		Assert.assertFalse(spec.isEmpty());
+		Assert.assertEquals(natur, normalized(searcher.searchPattern("Natur*", 0)));
+		Assert.assertEquals(spec, normalized(searcher.searchPattern("spec?es", 0)));
+		Assert.assertEquals(natur.size(), searcher.searchPattern("natur*", 3).length);
+		Assert.assertEquals(0, searcher.searchPattern("zzz*", 3).length);
+	}
+
+	/** Fuzzy hits are the words within the given number of typos. */
+	@Test
+	public void testFuzzy() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of(
+				"The specie of species, the spices and the speces here."),
+				ForkJoinPool.commonPool(), 1 << 16);
+		TextSearcherTest.assertArraysEqual(new String[] { "specie", "species", "speces" },
+				searcher.searchFuzzy("Species", 1, 0));
+		TextSearcherTest.assertArraysEqual(new String[] { "specie", "species", "spices",
+				"speces" }, searcher.searchFuzzy("species", 2, 0));
+		TextSearcherTest.assertArraysEqual(new String[] { "the spices and" },
+				searcher.searchFuzzy("spices", 0, 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeEdits() throws Exception {
+		new TextSearcher(TextSource.of("a b"), ForkJoinPool.commonPool(), 1 << 16)
+				.searchFuzzy("a", -1, 0);
+	}
+
+	private static List<String> normalized(String[] hits) {
+		List<String> words = new ArrayList<String>();
+		for (String hit : hits) {
+			words.add(WordScanner.normalize(hit));
+		}
+		return words;
+	}
+}
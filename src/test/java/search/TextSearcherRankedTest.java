@@ -0,0 +1,58 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for ranked search of passages with several words. */
+public class TextSearcherRankedTest {
+
+	/** Passages with more of the words, and with rarer ones, come first. */
+	@Test
+	public void testRanking() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of(
+				"the cat sat down, the dog ran off, cat and dog met, the end of it"),
+				ForkJoinPool.commonPool(), 1 << 16);
+		// Passages of four words; the cat and the dog tie, the earlier one first.
+		TextSearcherTest.assertArraysEqual(new String[] { "cat and dog met", "the cat sat down",
+				"the dog ran off" }, searcher.searchRanked("Cat dog", 3, 4));
+		TextSearcherTest.assertArraysEqual(new String[] { "cat and dog met" },
+				searcher.searchRanked("dog cat cat", 1, 4));
+		Assert.assertEquals(0, searcher.searchRanked("absent words", 3, 4).length);
+		Assert.assertEquals(0, searcher.searchRanked("cat", 0, 4).length);
+		// A passage longer than the text is all of it.
+		TextSearcherTest.assertArraysEqual(new String[] {
+				"the cat sat down, the dog ran off, cat and dog met, the end of it" },
+				searcher.searchRanked("dog", 3, Integer.MAX_VALUE));
+	}
+
+	/** The passages skipped once the top k is known could not have made it. */
+	@Test
+	public void testPruning() throws Exception {
+		File file = new File(getClass().getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+		TextSearcher searcher = new TextSearcher(TextSource.map(file, StandardCharsets.UTF_8),
+				ForkJoinPool.commonPool(), 16);
+		for (String query : new String[] { "natural selection of species", "the species",
+				"the of and to in variation", "animal's plants" }) {
+			for (int passageWords : new int[] { 10, 50 }) {
+				String[] all = searcher.searchRanked(query, 100000, passageWords);
+				Assert.assertTrue(all.length > 5);
+				for (int k : new int[] { 1, 3, 5 }) {
+					TextSearcherTest.assertArraysEqual(Arrays.copyOf(all, k),
+							searcher.searchRanked(query, k, passageWords));
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyPassages() throws Exception {
+		new TextSearcher(TextSource.of("a b"), ForkJoinPool.commonPool(), 1 << 16)
+				.searchRanked("a", 1, 0);
+	}
+}
@@ -0,0 +1,44 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests for searching many words at once. */
+public class TextSearcherSearchAllTest {
+
+	private TextSearcher longExcerpt() throws Exception {
+		File file = new File(getClass().getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+		return new TextSearcher(file, StandardCharsets.UTF_8);
+	}
+
+	/** Every word gets what a single search would give, in the order asked. */
+	@Test
+	public void testSameAsSingleSearches() throws Exception {
+		TextSearcher searcher = longExcerpt();
+		List<String> words = Arrays.asList("species", "of", "Species", "the",
+				"natural", "slejrlskejrlkajlsklejrlksjekl", "of");
+		for (int context : new int[] { 0, 1, 5 }) {
+			Map<String, String[]> results = searcher.searchAll(words, context);
+			TextSearcherTest.assertArraysEqual(new String[] { "species", "of", "Species",
+					"the", "natural", "slejrlskejrlkajlsklejrlksjekl" },
+					results.keySet().toArray());
+			for (Map.Entry<String, String[]> entry : results.entrySet()) {
+				TextSearcherTest.assertArraysEqual(
+						searcher.search(entry.getKey(), context), entry.getValue());
+			}
+		}
+	}
+
+	/** No words, no results. */
+	@Test
+	public void testEmpty() throws Exception {
+		Assert.assertTrue(longExcerpt().searchAll(Arrays.<String>asList(), 3).isEmpty());
+	}
+}
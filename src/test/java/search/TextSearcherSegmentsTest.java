@@ -0,0 +1,83 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests that splitting the text into many segments does not change results. */
+public class TextSearcherSegmentsTest {
+
+	private static ExecutorService executor;
+
+	@BeforeClass
+	public static void startExecutor() {
+		executor = new ForkJoinPool(8);
+	}
+
+	@AfterClass
+	public static void stopExecutor() {
+		executor.shutdown();
+	}
+
+	private TextSource longExcerpt() throws Exception {
+		File file = new File(getClass().getClassLoader()
+				.getResource("files/long_excerpt.txt").getFile());
+		return TextSource.map(file, StandardCharsets.UTF_8);
+	}
+
+	/** Tiny segments give the same hits as a single segment, including context across segments. */
+	@Test
+	public void testSmallSegments() throws Exception {
+		TextSearcher whole = new TextSearcher(longExcerpt(), executor, Long.MAX_VALUE);
+		TextSearcher split = new TextSearcher(longExcerpt(), executor, 16);
+		for (String word : new String[] { "the", "species", "animal's", "selection", "absent" }) {
+			for (int context = 0; context <= 6; context += 3) {
+				TextSearcherTest.assertArraysEqual(whole.search(word, context),
+						split.search(word, context));
+			}
+		}
+	}
+
+	/**
+	 * Searches with enough hits to be split across threads, over many shards,
+	 * give the same hits in the same order as a single shard.
+	 */
+	@Test
+	public void testParallelQueries() throws Exception {
+		TextSource source = longExcerpt();
+		String excerpt = source.substring(0, source.length());
+		StringBuilder text = new StringBuilder();
+		while (text.length() < 16 * excerpt.length()) {
+			text.append(excerpt).append('\n');
+		}
+		TextSearcher whole = new TextSearcher(TextSource.of(text.toString()), executor, Long.MAX_VALUE);
+		TextSearcher split = new TextSearcher(TextSource.of(text.toString()), executor, 1 << 16);
+		Assert.assertTrue(split.snapshot().segments().length >= 8);
+		String[] hits = split.search("the", 2);
+		Assert.assertTrue(hits.length > IndexSnapshot.PARALLEL_THRESHOLD);
+		TextSearcherTest.assertArraysEqual(whole.search("the", 2), hits);
+		TextSearcherTest.assertArraysEqual(whole.searchPattern("th*", 1), split.searchPattern("th*", 1));
+		Map<String, String[]> expected = whole.searchAll(Arrays.asList("the", "of", "species"), 1);
+		Map<String, String[]> found = split.searchAll(Arrays.asList("the", "of", "species"), 1);
+		for (String word : expected.keySet()) {
+			TextSearcherTest.assertArraysEqual(expected.get(word), found.get(word));
+		}
+	}
+
+	/** Text without whitespace ends up in a single segment. */
+	@Test
+	public void testSingleWord() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of("supercalifragilistic"),
+				executor, 2);
+		TextSearcherTest.assertArraysEqual(new String[] { "supercalifragilistic" },
+				searcher.search("supercalifragilistic", 2));
+	}
+}
@@ -0,0 +1,110 @@
+package search;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Unit tests for TextSource. */
+public class TextSourceTest {
+
+	/** Substrings that cross mapping windows, with multi-byte chars, decode correctly. */
+	@Test
+	public void testMappedWindows() throws Exception {
+		String text = "na\u00efve caf\u00e9 \u00fcber stra\u00dfe";
+		File file = File.createTempFile("mapped", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+
+		TextSource source = TextSource.map(file, StandardCharsets.UTF_8, 4);
+		Assert.assertEquals(text.getBytes(StandardCharsets.UTF_8).length, source.length());
+		Assert.assertEquals(text, source.substring(0, source.length()));
+		Assert.assertEquals('n', source.charAt(0));
+		Assert.assertEquals('\uFFFD', source.charAt(2));
+		Assert.assertEquals(' ', source.charAt(6));
+	}
+
+	/** Charsets that are not ASCII compatible are decoded up front. */
+	@Test
+	public void testDecodedCharset() throws Exception {
+		String text = "some words";
+		File file = File.createTempFile("decoded", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_16));
+
+		TextSource source = TextSource.map(file, StandardCharsets.UTF_16);
+		Assert.assertEquals(text.length(), source.length());
+		Assert.assertEquals("words", source.substring(5, 10));
+	}
+
+	/** Searching a mapped file with an explicit charset gives the same results. */
+	@Test
+	public void testSearcherWithCharset() throws Exception {
+		File file = new File(getClass().getClassLoader()
+				.getResource("files/short_excerpt.txt").getFile());
+		TextSearcher searcher = new TextSearcher(file, StandardCharsets.UTF_8);
+		String[] results = searcher.search("naturalists", 3);
+		TextSearcherTest.assertArraysEqual(new String[] {
+				"great majority of naturalists believed that species",
+				"authors.  Some few naturalists, on the other" }, results);
+	}
+
+	/** Many small appends go to one run, and appending to an older text leaves newer ones alone. */
+	@Test
+	public void testSmallAppends() {
+		TextSource text = TextSource.of("start");
+		StringBuilder expected = new StringBuilder("start");
+		TextSource older = null;
+		for (int i = 0; i < 10000; i++) {
+			if (i == 5000) {
+				older = text;
+			}
+			text = TextSource.concat(text, text.encode(" word" + i));
+			expected.append(" word").append(i);
+		}
+		Assert.assertEquals(1, ((TextSource.Composite) text).partCount());
+		Assert.assertEquals(expected.toString(), text.substring(0, text.length()));
+
+		int olderLength = (int) older.length();
+		TextSource branch = TextSource.concat(older, older.encode(" other"));
+		Assert.assertEquals(expected.substring(0, olderLength) + " other",
+				branch.substring(0, branch.length()));
+		Assert.assertEquals(expected.toString(), text.substring(0, text.length()));
+		TextSource next = TextSource.concat(text, text.encode(" end"));
+		Assert.assertEquals(expected + " end", next.substring(0, next.length()));
+		Assert.assertEquals(expected.substring(0, olderLength) + " other",
+				branch.substring(0, branch.length()));
+	}
+
+	/** Small parts of a mapped file are copied into one run, and large ones chained. */
+	@Test
+	public void testMappedAppends() throws Exception {
+		String text = "caf\u00e9 au lait";
+		File file = File.createTempFile("appended", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+
+		TextSource source = TextSource.map(file, StandardCharsets.UTF_8);
+		StringBuilder expected = new StringBuilder(text);
+		for (int i = 0; i < 100; i++) {
+			source = TextSource.concat(source, TextSource.map(file, StandardCharsets.UTF_8));
+			source = TextSource.concat(source, source.encode(" \u00fcber"));
+			expected.append(text).append(" \u00fcber");
+		}
+		Assert.assertEquals(1, ((TextSource.Composite) source).partCount());
+		Assert.assertEquals(expected.toString(), source.substring(0, source.length()));
+		Assert.assertEquals('\uFFFD', source.charAt(3));
+
+		long before = source.length();
+		char[] large = new char[TextSource.Composite.SMALL_PART];
+		Arrays.fill(large, 'a');
+		source = TextSource.concat(source, source.encode(new String(large)));
+		source = TextSource.concat(source, source.encode(" end"));
+		Assert.assertEquals(3, ((TextSource.Composite) source).partCount());
+		Assert.assertEquals("\u00fcbera", source.substring(before - 5, before + 1));
+		Assert.assertEquals("a end", source.substring(source.length() - 5, source.length()));
+	}
+}
@@ -0,0 +1,73 @@
+package search;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Unit tests for TokenOffsets. */
+public class TokenOffsetsTest {
+
+	/** Offsets packed in blocks read back the same, one at a time. */
+	@Test
+	public void testBlocks() throws Exception {
+		Random random = new Random(3);
+		int[] starts = new int[2 * TokenOffsets.BLOCK + 7];
+		int[] ends = new int[starts.length];
+		TokenOffsets.Builder builder = new TokenOffsets.Builder();
+		int offset = 0;
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = offset + 1 + (i == 200 ? 100000 : random.nextInt(3));
+			ends[i] = starts[i] + 1 + random.nextInt(12);
+			offset = ends[i];
+			builder.add(starts[i], ends[i]);
+		}
+		TokenOffsets offsets = TokenOffsets.wrap(builder.build().buffer());
+		Assert.assertEquals(starts.length, offsets.size());
+		Assert.assertTrue(offsets.sizeInBytes() < 3 * starts.length);
+		for (int i = 0; i < starts.length; i++) {
+			Assert.assertEquals(starts[i], offsets.start(i));
+			Assert.assertEquals(ends[i], offsets.end(i));
+		}
+
+		TokenOffsets concat = TokenOffsets.concat(new TokenOffsets[] { offsets, offsets },
+				new int[] { 0, 1000000 }, new int[] { starts.length, 10 });
+		Assert.assertEquals(starts.length + 10, concat.size());
+		Assert.assertEquals(ends[starts.length - 1], concat.end(starts.length - 1));
+		Assert.assertEquals(starts[9] + 1000000, concat.start(starts.length + 9));
+		Assert.assertEquals(0, new TokenOffsets.Builder().build().size());
+	}
+
+	/** Indexed offsets point at the words, however many spaces are around them. */
+	@Test
+	public void testIndexedOffsets() throws Exception {
+		String text = "first  two   spaced\t\tout words last";
+		TextSearcher searcher = new TextSearcher(TextSource.of(text),
+				ForkJoinPool.commonPool(), 1 << 16);
+		String[] words = text.split("\\s+");
+		TextSearcher.CallableResult segment = searcher.snapshot().segments()[0];
+		TokenOffsets offsets = segment.getOffsets();
+		Assert.assertEquals(words.length, offsets.size());
+		for (int i = 0; i < words.length; i++) {
+			Assert.assertEquals(words[i], text.substring(offsets.start(i), offsets.end(i)));
+		}
+	}
+
+	/** Contexts are cut from the text as it is, from the first word to the last. */
+	@Test
+	public void testContexts() throws Exception {
+		TextSearcher searcher = new TextSearcher(TextSource.of("  first  two   spaced\t\tout words last  "),
+				ForkJoinPool.commonPool(), 1 << 16);
+		TextSearcherTest.assertArraysEqual(new String[] { "first  two   spaced" },
+				searcher.search("first", 2));
+		TextSearcherTest.assertArraysEqual(new String[] { "out words last" },
+				searcher.search("last", 2));
+		TextSearcherTest.assertArraysEqual(new String[] { "two   spaced\t\tout" },
+				searcher.search("spaced", 1));
+		TextSearcherTest.assertArraysEqual(new String[] { "spaced" },
+				searcher.search("spaced", 0));
+		TextSearcherTest.assertArraysEqual(new String[] { "first  two   spaced\t\tout words last" },
+				searcher.search("spaced", 10));
+	}
+}
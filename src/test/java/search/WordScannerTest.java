@@ -0,0 +1,55 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Unit tests for WordScanner, WordDfa and the scanning mode of TextTokenizer. */
+public class WordScannerTest {
+
+	/** Tokens, offsets, normalized terms and hashes come out of a single pass. */
+	@Test
+	public void testScan() throws Exception {
+		String text = "  Origin of Species.\r\nanimal's  (xxx10x) --";
+		final List<String> terms = new ArrayList<String>();
+		final List<String> tokens = new ArrayList<String>();
+		new WordScanner().scan(TextSource.of(text), 0, text.length(),
+				(start, end, term, termLength, hash) -> {
+					String normalized = new String(term, 0, termLength);
+					Assert.assertEquals(normalized.hashCode(), hash);
+					terms.add(normalized);
+					tokens.add(text.substring((int) start, (int) end));
+				});
+		TextSearcherTest.assertArraysEqual(new String[] { "Origin", "of", "Species.",
+				"animal's", "(xxx10x)", "--" }, tokens.toArray());
+		TextSearcherTest.assertArraysEqual(new String[] { "origin", "of", "species",
+				"animal's", "(xxx10x", "" }, terms.toArray());
+	}
+
+	/** The scanner and normalize() agree, including non ASCII chars. */
+	@Test
+	public void testNormalize() throws Exception {
+		Assert.assertEquals("stra\u00dfe", WordScanner.normalize("STRA\u00dfE!?"));
+		Assert.assertEquals("\u00e9t\u00e9", WordScanner.normalize("\u00c9T\u00c9"));
+		Assert.assertEquals("", WordScanner.normalize("..."));
+	}
+
+	/** Without a regular expression the tokenizer finds the words of the standard analyzer. */
+	@Test
+	public void testTokenizerScanning() throws Exception {
+		TextTokenizer lexer = new TextTokenizer(" 123, 789:\r\nanimal's 'def' ");
+		List<String> tokens = new ArrayList<String>();
+		while (lexer.hasNext()) {
+			tokens.add(lexer.next());
+		}
+		TextSearcherTest.assertArraysEqual(new String[] { " ", "123", ", ", "789", ":\r\n",
+				"animal's", " '", "def", "' " }, tokens.toArray());
+		Assert.assertTrue(lexer.isWord("animal's"));
+		Assert.assertFalse(lexer.isWord("123,456"));
+		Assert.assertFalse(lexer.isWord("123 456"));
+		Assert.assertFalse(lexer.isWord("def'"));
+		Assert.assertFalse(lexer.isWord(""));
+	}
+}